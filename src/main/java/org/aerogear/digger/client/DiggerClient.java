@@ -1,35 +1,96 @@
 package org.aerogear.digger.client;
 
 import com.offbytwo.jenkins.JenkinsServer;
+import com.offbytwo.jenkins.client.JenkinsHttpClient;
+import org.aerogear.digger.client.model.ArtifactInfo;
+import org.aerogear.digger.client.model.BuildStats;
 import org.aerogear.digger.client.model.BuildStatus;
+import org.aerogear.digger.client.model.PipelineRun;
+import org.aerogear.digger.client.model.PipelineStage;
+import org.aerogear.digger.client.model.StartupTimings;
+import org.aerogear.digger.client.model.TrackedBuild;
 import org.aerogear.digger.client.services.BuildService;
+import org.aerogear.digger.client.util.BuildJournal;
+import org.aerogear.digger.client.util.ConsoleLogCache;
+import org.aerogear.digger.client.util.DaemonThreadFactory;
 import org.aerogear.digger.client.util.DiggerClientException;
 import org.aerogear.digger.client.util.JenkinsAuth;
 import org.aerogear.digger.client.services.ArtifactsService;
 import org.aerogear.digger.client.services.JobService;
+import org.aerogear.digger.client.services.PipelineService;
+import org.aerogear.digger.client.services.TestReportService;
+import org.aerogear.digger.client.services.StageListener;
+import org.aerogear.digger.client.sink.ArtifactSink;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.impl.client.HttpClientBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Digger Java Client interact with Digger Jenkins api.
  */
-public class DiggerClient {
+public class DiggerClient implements Closeable {
 
     private static final Logger LOG = LoggerFactory.getLogger(DiggerClient.class);
 
     public static final long DEFAULT_BUILD_TIMEOUT = 60 * 1000;
 
-    private JenkinsServer jenkinsServer;
+    private volatile JenkinsServer jenkinsServer;
+    private JenkinsAuth auth;
+    private URI jenkinsUri;
 
     private JobService jobService;
     private BuildService buildService;
     private ArtifactsService artifactsService;
+    private PipelineService pipelineService;
+    private TestReportService testReportService;
+    private ExecutorService executor;
+    private HttpClientConnectionManager connectionManager;
+    private JenkinsServer givenJenkinsServer;
+
+    /**
+     * Resources created by the builder, released by {@link #close()}.
+     */
+    private BuildJournal journal;
+    private boolean ownsExecutor;
+    private ScheduledExecutorService ownedScheduler;
+    private boolean tracksCompletions;
+
+    private final Map<String, Long> startupTimings = new LinkedHashMap<String, Long>();
+
+    /**
+     * When the client was last used, in milliseconds since epoch, see {@link #getLastUsed()}.
+     */
+    private volatile long lastUsed = System.currentTimeMillis();
+
+    /**
+     * Calls waiting for builds to leave the queue, see {@link #isBusy()}.
+     */
+    private final AtomicInteger waitingCalls = new AtomicInteger();
+
+    /**
+     * Stage watches started by {@link #watchStages(String, int, StageListener)}, cancelled by {@link #close()}.
+     */
+    private final List<PipelineService.StageWatch> stageWatches = new ArrayList<PipelineService.StageWatch>();
 
     private DiggerClient() {
     }
@@ -48,11 +109,11 @@ public class DiggerClient {
     public static DiggerClient createDefaultWithAuth(String url, String user, String password) throws DiggerClientException {
         BuildService buildService = new BuildService(BuildService.DEFAULT_FIRST_CHECK_DELAY, BuildService.DEFAULT_POLL_PERIOD);
         JobService jobService = new JobService();
-        ArtifactsService artifactsService = new ArtifactsService();
+        TestReportService testReportService = new TestReportService();
         return DiggerClient.builder()
             .createJobService(jobService)
             .triggerBuildService(buildService)
-            .artifactsService(artifactsService)
+            .testReportService(testReportService)
             .withAuth(url, user, password)
             .build();
     }
@@ -66,6 +127,18 @@ public class DiggerClient {
         private JobService jobService;
         private BuildService buildService;
         private ArtifactsService artifactsService;
+        private PipelineService pipelineService;
+        private TestReportService testReportService;
+        private File buildJournalFile;
+        private File consoleLogCacheDirectory;
+        private long consoleLogCacheSize;
+        private boolean connectLazily;
+        private boolean cancelOnTimeout;
+        private boolean deduplicateTriggers;
+        private ExecutorService executor;
+        private ScheduledExecutorService scheduler;
+        private HttpClientConnectionManager connectionManager;
+        private JenkinsServer jenkinsServer;
 
         public DiggerClientBuilder withAuth(String url, String user, String password) {
             this.auth = new JenkinsAuth(url, user, password);
@@ -87,20 +160,350 @@ public class DiggerClient {
             return this;
         }
 
+        public DiggerClientBuilder pipelineService(PipelineService pipelineService) {
+            this.pipelineService = pipelineService;
+            return this;
+        }
+
+        public DiggerClientBuilder testReportService(TestReportService testReportService) {
+            this.testReportService = testReportService;
+            return this;
+        }
+
+        /**
+         * Record triggered builds in a journal file, so that builds still in the queue can be resumed with
+         * {@link DiggerClient#resumeBuilds(long)} after a restart instead of being triggered again.
+         *
+         * @param buildJournalFile journal file, created if it doesn't exist
+         * @return the builder
+         */
+        public DiggerClientBuilder buildJournal(File buildJournalFile) {
+            this.buildJournalFile = buildJournalFile;
+            return this;
+        }
+
+        /**
+         * Keep the console logs of finished builds in a compressed on-disk cache, so that
+         * {@link DiggerClient#getBuildLogs(String, int)} and {@link DiggerClient#streamBuildLogs(String, int)}
+         * don't download them again. Logs of running builds are never cached.
+         * <p>
+         * Cached logs are identified by job name and build number, use a separate directory per Jenkins instance.
+         *
+         * @param directory directory of the cache, created if it doesn't exist
+         * @param maxBytes  maximum size (in bytes) of the compressed logs in the cache
+         * @return the builder
+         * @see ConsoleLogCache
+         */
+        public DiggerClientBuilder consoleLogCache(File directory, long maxBytes) {
+            this.consoleLogCacheDirectory = directory;
+            this.consoleLogCacheSize = maxBytes;
+            return this;
+        }
+
+        /**
+         * Cancel the queue item of a build that is still in the queue when {@link DiggerClient#build(String, long)}
+         * or {@link DiggerClient#resumeBuilds(long)} times out, so that it doesn't take an executor nobody waits for.
+         *
+         * @return the builder
+         * @see BuildService#setCancelOnTimeout(boolean)
+         */
+        public DiggerClientBuilder cancelOnTimeout() {
+            this.cancelOnTimeout = true;
+            return this;
+        }
+
+        /**
+         * Attach to a build of the same job and parameters triggered by the client that is still in the queue,
+         * instead of queueing another one, e.g. when retrying after a timeout. With a {@link #buildJournal(File)},
+         * builds triggered before a restart are attached to as well.
+         *
+         * @return the builder
+         * @see BuildService#setDeduplicateTriggers(boolean)
+         */
+        public DiggerClientBuilder deduplicateTriggers() {
+            this.deduplicateTriggers = true;
+            return this;
+        }
+
+        /**
+         * Create the Jenkins server client on first use instead of when the client is built.
+         * {@link DiggerClient#warmUp()} can be used to do the startup work ahead of the first call.
+         *
+         * @return the builder
+         */
+        public DiggerClientBuilder connectLazily() {
+            this.connectLazily = true;
+            return this;
+        }
+
+        /**
+         * @param executor executor used for the background work of the client, like {@link DiggerClient#warmUp()}
+         * @return the builder
+         */
+        public DiggerClientBuilder executor(ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * @param scheduler scheduler used for polling in the background, e.g. by the default {@link PipelineService}
+         *                  and to follow triggered builds until they finish, see
+         *                  {@link BuildService#setCompletionTracking(ScheduledExecutorService, java.util.concurrent.Executor)}
+         * @return the builder
+         */
+        public DiggerClientBuilder scheduler(ScheduledExecutorService scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * Use a connection manager that may be shared with other clients instead of a connection pool per client.
+         * The connection manager is not shut down by the client.
+         *
+         * @param connectionManager connection manager used for the connections to Jenkins
+         * @return the builder
+         */
+        public DiggerClientBuilder connectionManager(HttpClientConnectionManager connectionManager) {
+            this.connectionManager = connectionManager;
+            return this;
+        }
+
+        /**
+         * Use the given Jenkins server client instead of creating one, e.g. a mock in tests.
+         * It is still only used on first use when connecting lazily.
+         */
+        DiggerClientBuilder jenkinsServer(JenkinsServer jenkinsServer) {
+            this.jenkinsServer = jenkinsServer;
+            return this;
+        }
+
         public DiggerClient build() throws DiggerClientException {
             final DiggerClient client = new DiggerClient();
             try {
-                client.jenkinsServer = new JenkinsServer(new URI(auth.getUrl()), auth.getUser(), auth.getPassword());
+                client.auth = this.auth;
+                client.jenkinsUri = new URI(auth.getUrl());
                 client.jobService = this.jobService;
                 client.buildService = this.buildService;
-                client.artifactsService = this.artifactsService;
+                if (this.executor != null) {
+                    client.executor = this.executor;
+                } else {
+                    client.executor = Executors.newCachedThreadPool(new DaemonThreadFactory("digger-client"));
+                    client.ownsExecutor = true;
+                }
+                final ScheduledExecutorService scheduler;
+                if (this.scheduler != null) {
+                    scheduler = this.scheduler;
+                } else {
+                    client.ownedScheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("digger-client-scheduler"));
+                    scheduler = client.ownedScheduler;
+                }
+                // default services run on the threads of the client, so that close() stops them
+                if (this.artifactsService != null) {
+                    client.artifactsService = this.artifactsService;
+                } else {
+                    client.artifactsService = new ArtifactsService(client.executor, ArtifactsService.DEFAULT_PIPE_CHUNK_SIZE);
+                }
+                if (this.pipelineService != null) {
+                    client.pipelineService = this.pipelineService;
+                } else {
+                    client.pipelineService = new PipelineService(scheduler, client.executor, PipelineService.DEFAULT_POLL_PERIOD);
+                }
+                if (client.buildService != null && !client.buildService.isTrackingCompletions()) {
+                    client.buildService.setCompletionTracking(scheduler, client.executor);
+                    client.tracksCompletions = true;
+                }
+                client.testReportService = this.testReportService != null ? this.testReportService : new TestReportService();
+                client.connectionManager = this.connectionManager;
+                client.givenJenkinsServer = this.jenkinsServer;
+                if (buildJournalFile != null) {
+                    client.journal = new BuildJournal(buildJournalFile);
+                    client.buildService.setJournal(client.journal);
+                }
+                if (consoleLogCacheDirectory != null) {
+                    client.buildService.setConsoleLogCache(new ConsoleLogCache(consoleLogCacheDirectory, consoleLogCacheSize));
+                }
+                if (cancelOnTimeout) {
+                    client.buildService.setCancelOnTimeout(true);
+                }
+                if (deduplicateTriggers) {
+                    client.buildService.setDeduplicateTriggers(true);
+                }
+                if (!connectLazily) {
+                    client.jenkinsServer();
+                }
                 return client;
             } catch (URISyntaxException e) {
                 throw new DiggerClientException("Invalid jenkins url format.");
+            } catch (IOException e) {
+                client.close();
+                throw new DiggerClientException("Cannot open build journal or console log cache.", e);
+            }
+        }
+    }
+
+
+    /**
+     * Does the startup work of the client ahead of the first call: initializes the template engine, compiles the
+     * job template and opens the connection to Jenkins. The phases run in parallel.
+     * <p>
+     * The CSRF crumb is not fetched: jenkins-client fetches a new one for every request that needs it.
+     * <p>
+     * Meant for clients built with {@link DiggerClientBuilder#connectLazily()} in short lived processes, where the
+     * startup cost would otherwise be paid by the first real call.
+     *
+     * @return timings of the startup phases
+     * @throws DiggerClientException if Jenkins cannot be reached or the job template cannot be compiled
+     */
+    public StartupTimings warmUp() throws DiggerClientException {
+        final long start = System.currentTimeMillis();
+        final Future<?> template = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                long phaseStart = System.currentTimeMillis();
+                jobService.warmUp();
+                recordStartupPhase(StartupTimings.TEMPLATE, phaseStart);
+                return null;
+            }
+        });
+        final Future<?> connection = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws DiggerClientException {
+                JenkinsServer server = jenkinsServer();
+                long phaseStart = System.currentTimeMillis();
+                if (!server.isRunning()) {
+                    throw new DiggerClientException("Cannot connect to Jenkins at " + jenkinsUri);
+                }
+                recordStartupPhase(StartupTimings.CONNECTION, phaseStart);
+                return null;
+            }
+        });
+
+        try {
+            template.get();
+            connection.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DiggerClientException(e);
+        } catch (ExecutionException e) {
+            LOG.debug("Exception while warming up", e.getCause());
+            if (e.getCause() instanceof DiggerClientException) {
+                throw (DiggerClientException) e.getCause();
             }
+            throw new DiggerClientException(e.getCause());
         }
+        recordStartupPhase(StartupTimings.WARM_UP, start);
+        return getStartupTimings();
     }
 
+    /**
+     * @return timings of the startup phases completed so far
+     * @see #warmUp()
+     */
+    public StartupTimings getStartupTimings() {
+        synchronized (startupTimings) {
+            return new StartupTimings(startupTimings);
+        }
+    }
+
+    /**
+     * Releases the resources the client created: cancels the stage watches, stops following triggered builds, closes
+     * the build journal opened for {@link DiggerClientBuilder#buildJournal(File)} and shuts down the default executor
+     * and scheduler, which also run the default {@link ArtifactsService} and {@link PipelineService}.
+     * Services, executors, schedulers and connection managers passed to the builder are not shut down.
+     * <p>
+     * The client cannot be used afterwards.
+     */
+    @Override
+    public void close() {
+        final List<PipelineService.StageWatch> watches;
+        synchronized (stageWatches) {
+            watches = new ArrayList<PipelineService.StageWatch>(stageWatches);
+            stageWatches.clear();
+        }
+        for (PipelineService.StageWatch watch : watches) {
+            watch.cancel();
+        }
+        if (tracksCompletions) {
+            buildService.setCompletionTracking(null, null);
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        if (ownedScheduler != null) {
+            ownedScheduler.shutdownNow();
+        }
+        if (ownsExecutor && executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private void recordStartupPhase(String phase, long phaseStart) {
+        long time = System.currentTimeMillis() - phaseStart;
+        LOG.debug("Startup phase {} took {} msecs", phase, time);
+        synchronized (startupTimings) {
+            startupTimings.put(phase, time);
+        }
+    }
+
+    /**
+     * @return when the client was last used, in milliseconds since epoch. Every call to Jenkins counts as a use.
+     */
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    /**
+     * @return whether the client is waiting for builds to leave the queue or watching stages, which {@link #close()}
+     * would interrupt
+     */
+    boolean isBusy() {
+        if (waitingCalls.get() > 0) {
+            return true;
+        }
+        synchronized (stageWatches) {
+            for (PipelineService.StageWatch watch : stageWatches) {
+                if (!watch.isDone()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void callFinished() {
+        lastUsed = System.currentTimeMillis();
+        waitingCalls.decrementAndGet();
+    }
+
+    private JenkinsServer jenkinsServer() {
+        lastUsed = System.currentTimeMillis();
+        JenkinsServer server = jenkinsServer;
+        if (server == null) {
+            synchronized (this) {
+                server = jenkinsServer;
+                if (server == null) {
+                    long phaseStart = System.currentTimeMillis();
+                    if (givenJenkinsServer != null) {
+                        server = givenJenkinsServer;
+                    } else {
+                        final JenkinsHttpClient jenkinsHttpClient;
+                        if (connectionManager != null) {
+                            HttpClientBuilder httpClientBuilder = HttpClientBuilder.create()
+                                .setConnectionManager(connectionManager)
+                                .setConnectionManagerShared(true);
+                            jenkinsHttpClient = new JenkinsHttpClient(jenkinsUri, httpClientBuilder, auth.getUser(), auth.getPassword());
+                        } else {
+                            jenkinsHttpClient = new JenkinsHttpClient(jenkinsUri, auth.getUser(), auth.getPassword());
+                        }
+                        server = new JenkinsServer(jenkinsHttpClient);
+                    }
+                    jenkinsServer = server;
+                    recordStartupPhase(StartupTimings.CLIENT, phaseStart);
+                }
+            }
+        }
+        return server;
+    }
 
     /**
      * Create new Digger job on Jenkins platform
@@ -112,7 +515,27 @@ public class DiggerClient {
      */
     public void createJob(String name, String gitRepo, String gitBranch) throws DiggerClientException {
         try {
-            jobService.create(this.jenkinsServer, name, gitRepo, gitBranch);
+            jobService.create(jenkinsServer(), name, gitRepo, gitBranch);
+        } catch (Throwable e) {
+            throw new DiggerClientException(e);
+        }
+    }
+
+    /**
+     * Create new Digger job with string parameters on Jenkins platform.
+     * <p>
+     * A single parameterized job can be built for different variants (flavor, signing key, etc.) with
+     * {@link #build(String, Map, long)} instead of creating a job for each variant.
+     *
+     * @param name       job name that can be used later to reference job
+     * @param gitRepo    git repository url (full git repository url. e.g git@github.com:wtrocki/helloworld-android-gradle.git
+     * @param gitBranch  git repository branch (default branch used to checkout source code)
+     * @param parameters names of the job parameters mapped to their default values
+     * @throws DiggerClientException if something goes wrong
+     */
+    public void createJob(String name, String gitRepo, String gitBranch, Map<String, String> parameters) throws DiggerClientException {
+        try {
+            jobService.create(jenkinsServer(), name, gitRepo, gitBranch, parameters);
         } catch (Throwable e) {
             throw new DiggerClientException(e);
         }
@@ -126,6 +549,10 @@ public class DiggerClient {
      * <p>
      * This method will block until there is a build number, or the given timeout period is passed. If the build is still in the queue
      * after the given timeout period, a {@code BuildStatus} is returned with state {@link BuildStatus.State#TIMED_OUT}.
+     * The queue item is then cancelled if the client is built with {@link DiggerClientBuilder#cancelOnTimeout()}.
+     * <p>
+     * If the client is built with {@link DiggerClientBuilder#deduplicateTriggers()} and a build of the job triggered by the
+     * client is still in the queue, no new build is queued: this method waits for the queued one instead.
      * <p>
      * Please note that timeout period is never meant to be very precise. It has the resolution of {@link BuildService#DEFAULT_POLL_PERIOD} because
      * timeout is checked before every pull.
@@ -140,8 +567,40 @@ public class DiggerClient {
      * @throws DiggerClientException if connection problems occur during connecting to Jenkins
      */
     public BuildStatus build(String jobName, long timeout) throws DiggerClientException {
+        waitingCalls.incrementAndGet();
+        try {
+            return buildService.build(jenkinsServer(), jobName, timeout);
+        } catch (IOException e) {
+            LOG.debug("Exception while connecting to Jenkins", e);
+            throw new DiggerClientException(e);
+        } catch (InterruptedException e) {
+            LOG.debug("Exception while waiting on Jenkins", e);
+            throw new DiggerClientException(e);
+        } catch (Throwable e) {
+            LOG.debug("Exception while triggering a build", e);
+            throw new DiggerClientException(e);
+        } finally {
+            callFinished();
+        }
+    }
+
+    /**
+     * Triggers a build with parameters for the given job and waits until it leaves the queue and actually starts.
+     * <p>
+     * Behaves the same as {@link #build(String, long)}.
+     *
+     * @param jobName    name of the job to trigger the build
+     * @param parameters build parameters
+     * @param timeout    how many milliseconds should this call block before returning {@link BuildStatus.State#TIMED_OUT}.
+     *                   Should be larger than {@link BuildService#DEFAULT_FIRST_CHECK_DELAY}
+     * @return the build status
+     * @throws DiggerClientException if connection problems occur during connecting to Jenkins
+     * @see #build(String, long)
+     */
+    public BuildStatus build(String jobName, Map<String, String> parameters, long timeout) throws DiggerClientException {
+        waitingCalls.incrementAndGet();
         try {
-            return buildService.build(this.jenkinsServer, jobName, timeout);
+            return buildService.build(jenkinsServer(), jobName, parameters, timeout);
         } catch (IOException e) {
             LOG.debug("Exception while connecting to Jenkins", e);
             throw new DiggerClientException(e);
@@ -151,6 +610,74 @@ public class DiggerClient {
         } catch (Throwable e) {
             LOG.debug("Exception while triggering a build", e);
             throw new DiggerClientException(e);
+        } finally {
+            callFinished();
+        }
+    }
+
+    /**
+     * Triggers a build of the given job for each of the parameter sets and waits until they leave the queue and actually start.
+     * <p>
+     * All builds are triggered first and their queue items are then polled together, so waiting for N builds takes
+     * as long as waiting for the slowest one. Builds still in the queue after the timeout period get
+     * {@link BuildStatus.State#TIMED_OUT}.
+     *
+     * @param jobName       name of the job to trigger the builds
+     * @param parameterSets build parameters of every build to trigger
+     * @param timeout       how many milliseconds should this call block before returning {@link BuildStatus.State#TIMED_OUT}
+     *                      for the builds still in the queue
+     * @return the build statuses, in the order of the parameter sets
+     * @throws DiggerClientException if connection problems occur during connecting to Jenkins
+     * @see #build(String, long)
+     */
+    public List<BuildStatus> buildAll(String jobName, List<Map<String, String>> parameterSets, long timeout) throws DiggerClientException {
+        waitingCalls.incrementAndGet();
+        try {
+            return buildService.buildAll(jenkinsServer(), jobName, parameterSets, timeout);
+        } catch (IOException e) {
+            LOG.debug("Exception while connecting to Jenkins", e);
+            throw new DiggerClientException(e);
+        } catch (InterruptedException e) {
+            LOG.debug("Exception while waiting on Jenkins", e);
+            throw new DiggerClientException(e);
+        } catch (Throwable e) {
+            LOG.debug("Exception while triggering builds", e);
+            throw new DiggerClientException(e);
+        } finally {
+            callFinished();
+        }
+    }
+
+    /**
+     * Resumes watching the builds that were triggered but still waiting in the queue when the client (or a previous
+     * process using the same journal) stopped, and waits until they leave the queue and actually start.
+     * <p>
+     * Requires a journal configured with {@link DiggerClientBuilder#buildJournal(File)}, returns an empty list otherwise.
+     * Builds whose queue items are not known by Jenkins anymore (404) are dropped from the journal and returned without
+     * a status. Any other failure, e.g. Jenkins being unreachable, fails the call and keeps the journal as it is,
+     * so resuming can be retried.
+     * <p>
+     * If the client is built with {@link DiggerClientBuilder#cancelOnTimeout()}, the resumed builds still in the queue
+     * when the timeout passes are cancelled like the ones of {@link #build(String, long)}, unless another caller
+     * still waits for them.
+     *
+     * @param timeout how many milliseconds should this call block before returning {@link BuildStatus.State#TIMED_OUT}
+     *                for the builds still in the queue
+     * @return the resumed builds with their statuses and the parameters they were triggered with
+     * @throws DiggerClientException if connection problems occur during connecting to Jenkins
+     */
+    public List<TrackedBuild> resumeBuilds(long timeout) throws DiggerClientException {
+        waitingCalls.incrementAndGet();
+        try {
+            return buildService.resumeBuilds(jenkinsServer(), timeout);
+        } catch (IOException e) {
+            LOG.debug("Exception while connecting to Jenkins", e);
+            throw new DiggerClientException(e);
+        } catch (InterruptedException e) {
+            LOG.debug("Exception while waiting on Jenkins", e);
+            throw new DiggerClientException(e);
+        } finally {
+            callFinished();
         }
     }
 
@@ -178,7 +705,23 @@ public class DiggerClient {
      * @throws DiggerClientException - when problem with fetching artifacts from jenkins
      */
     public InputStream fetchArtifact(String jobName, int buildNumber, String artifactName) throws DiggerClientException {
-        return artifactsService.streamArtifact(jenkinsServer, jobName, buildNumber, artifactName);
+        return artifactsService.streamArtifact(jenkinsServer(), jobName, buildNumber, artifactName);
+    }
+
+    /**
+     * List artifacts of specific job and build number.
+     * <p>
+     * Artifacts are fetched lazily page by page while iterating.
+     *
+     * @param jobName     name of the job
+     * @param buildNumber job build number
+     * @param filter      regexp the artifact file names should match, for example .*\.xml, or {@code null} for all artifacts
+     * @return artifacts of the build matching the filter
+     * @throws DiggerClientException when problem with fetching artifacts from jenkins
+     * @see ArtifactsService#listArtifacts(JenkinsServer, String, int, String)
+     */
+    public Iterable<ArtifactInfo> listArtifacts(String jobName, int buildNumber, String filter) throws DiggerClientException {
+        return artifactsService.listArtifacts(jenkinsServer(), jobName, buildNumber, filter);
     }
 
     /**
@@ -193,7 +736,25 @@ public class DiggerClient {
      * @throws IOException           when one of the files cannot be saved
      */
     public void saveArtifact(String jobName, int buildNumber, String artifactName, File outputFile) throws DiggerClientException, IOException {
-        artifactsService.saveArtifact(jenkinsServer, jobName, buildNumber, artifactName, outputFile);
+        artifactsService.saveArtifact(jenkinsServer(), jobName, buildNumber, artifactName, outputFile);
+    }
+
+    /**
+     * Stream artifact for specific job, build number and artifact name into a sink (a file, an upload, another stream)
+     * without saving it locally first.
+     * If name would be an regular expression method would stream the first match.
+     *
+     * @param jobName      name of the job
+     * @param buildNumber  job build number
+     * @param artifactName name of the artifact to fetch - can be regexp for example *.apk
+     * @param sink         destination of the artifact
+     * @return number of bytes written to the sink
+     * @throws DiggerClientException when problem with fetching artifacts from jenkins
+     * @throws IOException           when artifact cannot be read or written to the sink
+     * @see ArtifactsService#pipeArtifact(JenkinsServer, String, int, String, ArtifactSink)
+     */
+    public long pipeArtifact(String jobName, int buildNumber, String artifactName, ArtifactSink sink) throws DiggerClientException, IOException {
+        return artifactsService.pipeArtifact(jenkinsServer(), jobName, buildNumber, artifactName, sink);
     }
 
     /**
@@ -205,6 +766,148 @@ public class DiggerClient {
      * @throws DiggerClientException when problem with fetching artifacts from jenkins
      */
     public String getBuildLogs(String jobName, int buildNumber) throws DiggerClientException {
-        return buildService.getBuildLogs(jenkinsServer, jobName, buildNumber);
+        return buildService.getBuildLogs(jenkinsServer(), jobName, buildNumber);
+    }
+
+    /**
+     * Stream build logs for specific job and build number, without holding the whole log in memory.
+     * <p>
+     * With a {@link DiggerClientBuilder#consoleLogCache(File, long) console log cache}, logs of finished builds are
+     * downloaded once and served from the cache afterwards, decompressing only the parts that are read.
+     * The first call for a finished build streams the download and caches it on the way, so the log is cached only
+     * once the stream is read to its end. If the log cannot be cached, e.g. the disk is full, it is streamed uncached.
+     *
+     * @param jobName     name of the job
+     * @param buildNumber job build number
+     * @return stream of the log, to be closed by the caller
+     * @throws DiggerClientException when problem with fetching logs from jenkins
+     */
+    public InputStream streamBuildLogs(String jobName, int buildNumber) throws DiggerClientException {
+        return buildService.streamBuildLogs(jenkinsServer(), jobName, buildNumber);
+    }
+
+    /**
+     * Get queue wait and build duration statistics for a job.
+     * <p>
+     * Queue wait is recorded for the builds triggered with {@link #build(String, long)} that started executing.
+     * Build duration is recorded when those builds finish, and for the other finished builds the client observes,
+     * e.g. when fetching their logs or stages.
+     * Percentiles can be used to pick a per job timeout instead of {@link #DEFAULT_BUILD_TIMEOUT}.
+     *
+     * @param jobName name of the job
+     * @return statistics snapshot of the job
+     */
+    public BuildStats stats(String jobName) {
+        return buildService.getStats(jobName);
+    }
+
+    /**
+     * Get queue wait and build duration statistics aggregated over all jobs.
+     *
+     * @return statistics snapshot of all jobs
+     * @see #stats(String)
+     */
+    public BuildStats stats() {
+        return buildService.getStats();
+    }
+
+    /**
+     * Get the stages of a pipeline build with their status and durations.
+     * <p>
+     * Much cheaper than parsing {@link #getBuildLogs(String, int)}. Stages of finished builds are fetched only once.
+     *
+     * @param jobName     name of the job
+     * @param buildNumber job build number
+     * @return stages of the build in execution order
+     * @throws DiggerClientException when problem with fetching stages from jenkins
+     */
+    public List<PipelineStage> getStages(String jobName, int buildNumber) throws DiggerClientException {
+        PipelineRun run = pipelineService.getPipelineRun(jenkinsServer(), jobName, buildNumber);
+        if (run.getStatus().isFinished()) {
+            buildService.recordBuildDuration(jobName, buildNumber, run.getDurationMillis());
+        }
+        return run.getStages();
+    }
+
+    /**
+     * Watch the stages of a pipeline build until it finishes.
+     * <p>
+     * The build is polled in the background while it is running, and the listener receives only the stages that
+     * appeared or changed their status since the previous update.
+     *
+     * @param jobName     name of the job
+     * @param buildNumber job build number
+     * @param listener    listener receiving the stage updates
+     * @return handle to stop watching
+     * @throws DiggerClientException when problem with fetching job from jenkins
+     */
+    public PipelineService.StageWatch watchStages(String jobName, int buildNumber, final StageListener listener) throws DiggerClientException {
+        final PipelineService.StageWatch watch = pipelineService.watchStages(jenkinsServer(), jobName, buildNumber, new StageListener() {
+            @Override
+            public void onStagesChanged(String jobName, int buildNumber, List<PipelineStage> changed) {
+                listener.onStagesChanged(jobName, buildNumber, changed);
+            }
+
+            @Override
+            public void onCompleted(String jobName, int buildNumber, PipelineRun run) {
+                buildService.recordBuildDuration(jobName, buildNumber, run.getDurationMillis());
+                listener.onCompleted(jobName, buildNumber, run);
+            }
+
+            @Override
+            public void onError(String jobName, int buildNumber, Exception e) {
+                listener.onError(jobName, buildNumber, e);
+            }
+
+            @Override
+            public void onGaveUp(String jobName, int buildNumber, Exception e) {
+                listener.onGaveUp(jobName, buildNumber, e);
+            }
+        });
+        synchronized (stageWatches) {
+            final Iterator<PipelineService.StageWatch> iterator = stageWatches.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().isDone()) {
+                    iterator.remove();
+                }
+            }
+            stageWatches.add(watch);
+        }
+        return watch;
+    }
+
+    /**
+     * Stream the test cases of a build from its JUnit test report.
+     * <p>
+     * Behaves the same as {@link #streamTestReport(String, int, boolean)} returning all the test cases.
+     *
+     * @param jobName     name of the job
+     * @param buildNumber job build number
+     * @return iterator over the test cases, to be closed by the caller
+     * @throws DiggerClientException when problem with fetching the test report from jenkins
+     * @see #streamTestReport(String, int, boolean)
+     */
+    public TestReportService.TestCaseIterator streamTestReport(String jobName, int buildNumber) throws DiggerClientException {
+        return streamTestReport(jobName, buildNumber, false);
+    }
+
+    /**
+     * Stream the test cases of a build from its JUnit test report.
+     * <p>
+     * The report is parsed while it is downloaded, so memory use stays flat however many test cases the build has.
+     * The captured output of the tests is not fetched. Jenkins cannot filter test cases by status,
+     * so with {@code failuresOnly} the passed and skipped cases are still downloaded and dropped while parsing.
+     * <p>
+     * The iterator throws {@link IllegalStateException} when reading the report fails.
+     * It should be closed when it is not read until the end.
+     *
+     * @param jobName      name of the job
+     * @param buildNumber  job build number
+     * @param failuresOnly return only the failed test cases
+     * @return iterator over the test cases, to be closed by the caller
+     * @throws DiggerClientException when problem with fetching the test report from jenkins, e.g. the build has none
+     */
+    public TestReportService.TestCaseIterator streamTestReport(String jobName, int buildNumber, boolean failuresOnly) throws DiggerClientException {
+        return testReportService.streamTestReport(jenkinsServer(), jobName, buildNumber, failuresOnly);
     }
 }
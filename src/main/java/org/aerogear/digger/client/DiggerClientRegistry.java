@@ -0,0 +1,294 @@
+package org.aerogear.digger.client;
+
+import org.aerogear.digger.client.services.ArtifactsService;
+import org.aerogear.digger.client.services.BuildService;
+import org.aerogear.digger.client.services.JobService;
+import org.aerogear.digger.client.services.PipelineService;
+import org.aerogear.digger.client.util.DaemonThreadFactory;
+import org.aerogear.digger.client.util.DiggerClientException;
+import org.aerogear.digger.client.util.JenkinsAuth;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands out a {@link DiggerClient} per Jenkins instance and credentials, for applications serving many tenants.
+ * <p>
+ * All the clients share one executor, one small scheduler, one HTTP connection pool and one compiled job template.
+ * The scheduler only times the background polls; the blocking requests run on the executor.
+ * Clients connect lazily, so creating one is cheap. At most {@link #maxClients} clients are kept: the least recently
+ * used one is evicted when the limit is reached, and clients not used for {@link #idleTimeout} are evicted
+ * periodically. A client is used by every call to Jenkins, not only when it is handed out. Clients that are waiting
+ * for builds or watching stages are never evicted, so the limit can be exceeded while they are all busy. Evicted
+ * clients are closed. An evicted tenant simply gets a new client on its next call.
+ * <p>
+ * {@link #maxClients} bounds the number of clients; the caches of each client are bounded too, so that the memory of
+ * the registry is bounded by the product of both. Besides a few services and, once connected, a Jenkins client,
+ * a client keeps:
+ * <ul>
+ * <li>build statistics of its last {@link #STATS_JOBS_PER_CLIENT} jobs used, about 14KB per job</li>
+ * <li>the details and artifact list of its last {@link #CACHED_BUILDS_PER_CLIENT} finished builds whose artifacts were
+ * listed, a few KB per build, more for builds with many artifacts</li>
+ * <li>the stages of its last {@link #CACHED_BUILDS_PER_CLIENT} finished pipeline builds watched or fetched, about
+ * 1KB per build</li>
+ * </ul>
+ * That is up to about 300KB per busy client, so the default limit of clients takes up to about 300MB. Lower the limit
+ * if the heap cannot afford it; evicted tenants only lose their cached data.
+ * <p>
+ * Instances are thread safe.
+ */
+public class DiggerClientRegistry implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DiggerClientRegistry.class);
+
+    /**
+     * Default value of {@link #maxClients}
+     */
+    public static final int DEFAULT_MAX_CLIENTS = 1000;
+
+    /**
+     * Default value of {@link #idleTimeout}
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 10 * 60 * 1000L;
+
+    /**
+     * Number of threads of the scheduler shared by the clients.
+     */
+    public static final int SCHEDULER_THREADS = 2;
+
+    /**
+     * Maximum number of pooled connections, over all the tenants.
+     */
+    public static final int MAX_CONNECTIONS = 200;
+
+    /**
+     * Maximum number of pooled connections to a single Jenkins instance.
+     */
+    public static final int MAX_CONNECTIONS_PER_ROUTE = 20;
+
+    /**
+     * Number of jobs each client keeps build statistics for.
+     */
+    public static final int STATS_JOBS_PER_CLIENT = 16;
+
+    /**
+     * Number of finished builds each client keeps the artifact index of, and the pipeline stages of.
+     */
+    public static final int CACHED_BUILDS_PER_CLIENT = 8;
+
+    private final int maxClients;
+    private final long idleTimeout;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(new DaemonThreadFactory("digger-registry"));
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(SCHEDULER_THREADS, new DaemonThreadFactory("digger-registry-scheduler"));
+    private final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+    private final JobService jobService = new JobService();
+
+    /**
+     * Access ordered, so that clients used in the same millisecond are evicted in the order they were handed out.
+     */
+    private final LinkedHashMap<JenkinsAuth, Entry> clients = new LinkedHashMap<JenkinsAuth, Entry>(16, 0.75f, true);
+
+    /**
+     * Create a registry with {@link #DEFAULT_MAX_CLIENTS} and {@link #DEFAULT_IDLE_TIMEOUT}.
+     */
+    public DiggerClientRegistry() {
+        this(DEFAULT_MAX_CLIENTS, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * @param maxClients  maximum number of clients kept in the registry, regardless of their size
+     * @param idleTimeout how long (in milliseconds) a client can be unused before it is evicted
+     */
+    public DiggerClientRegistry(int maxClients, long idleTimeout) {
+        this.maxClients = maxClients;
+        this.idleTimeout = idleTimeout;
+        connectionManager.setMaxTotal(MAX_CONNECTIONS);
+        connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+
+        long sweepPeriod = Math.max(idleTimeout / 2, 1000L);
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evictIdle();
+            }
+        }, sweepPeriod, sweepPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the client of a tenant, creating it if there is none.
+     *
+     * @param url      Jenkins url
+     * @param user     Jenkins user
+     * @param password Jenkins password
+     * @return client instance
+     * @throws DiggerClientException if the client cannot be created
+     */
+    public DiggerClient get(String url, String user, String password) throws DiggerClientException {
+        return get(new JenkinsAuth(url, user, password));
+    }
+
+    /**
+     * Get the client of a tenant, creating it if there is none.
+     *
+     * @param auth Jenkins url and credentials of the tenant
+     * @return client instance
+     * @throws DiggerClientException if the client cannot be created
+     */
+    public DiggerClient get(JenkinsAuth auth) throws DiggerClientException {
+        // copy the key, so that changing the given auth doesn't break the map
+        final JenkinsAuth key = new JenkinsAuth(auth.getUrl(), auth.getUser(), auth.getPassword());
+        final List<DiggerClient> evicted = new ArrayList<DiggerClient>();
+        final DiggerClient client;
+        synchronized (clients) {
+            Entry entry = clients.get(key);
+            if (entry == null) {
+                entry = new Entry(create(key));
+                clients.put(key, entry);
+                evictOverflow(entry, evicted);
+            }
+            entry.lastAccess = System.currentTimeMillis();
+            client = entry.client;
+        }
+        closeAll(evicted);
+        return client;
+    }
+
+    /**
+     * @return number of clients in the registry
+     */
+    public int size() {
+        synchronized (clients) {
+            return clients.size();
+        }
+    }
+
+    /**
+     * Evicts the clients that are not used for {@link #idleTimeout} and not busy. Called periodically by the registry.
+     */
+    public void evictIdle() {
+        final long idleSince = System.currentTimeMillis() - idleTimeout;
+        final List<DiggerClient> evicted = new ArrayList<DiggerClient>();
+        synchronized (clients) {
+            // clients are used after they are handed out, so all of them are checked
+            Iterator<Entry> iterator = clients.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (entry.lastUsed() >= idleSince || entry.client.isBusy()) {
+                    continue;
+                }
+                iterator.remove();
+                evicted.add(entry.client);
+            }
+        }
+        if (!evicted.isEmpty()) {
+            LOG.debug("Evicted {} idle clients", evicted.size());
+            closeAll(evicted);
+        }
+        connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Evicts all the clients and releases the shared resources. The registry cannot be used afterwards.
+     */
+    @Override
+    public void close() {
+        final List<DiggerClient> evicted = new ArrayList<DiggerClient>();
+        synchronized (clients) {
+            for (Entry entry : clients.values()) {
+                evicted.add(entry.client);
+            }
+            clients.clear();
+        }
+        closeAll(evicted);
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+        connectionManager.shutdown();
+    }
+
+    /**
+     * Evicts the least recently used clients that are not busy until the limit is met, never the one just added.
+     */
+    private void evictOverflow(Entry added, List<DiggerClient> evicted) {
+        if (clients.size() <= maxClients) {
+            return;
+        }
+        List<Map.Entry<JenkinsAuth, Entry>> candidates = new ArrayList<Map.Entry<JenkinsAuth, Entry>>(clients.entrySet());
+        // stable, ties keep the access order
+        Collections.sort(candidates, new Comparator<Map.Entry<JenkinsAuth, Entry>>() {
+            @Override
+            public int compare(Map.Entry<JenkinsAuth, Entry> a, Map.Entry<JenkinsAuth, Entry> b) {
+                long diff = a.getValue().lastUsed() - b.getValue().lastUsed();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        Iterator<Map.Entry<JenkinsAuth, Entry>> iterator = candidates.iterator();
+        while (clients.size() > maxClients && iterator.hasNext()) {
+            Map.Entry<JenkinsAuth, Entry> candidate = iterator.next();
+            if (candidate.getValue() == added || candidate.getValue().client.isBusy()) {
+                continue;
+            }
+            LOG.debug("Evicting least recently used client of {}", candidate.getKey().getUrl());
+            clients.remove(candidate.getKey());
+            evicted.add(candidate.getValue().client);
+        }
+        if (clients.size() > maxClients) {
+            LOG.debug("Keeping {} clients over the limit, they are busy", clients.size() - maxClients);
+        }
+    }
+
+    /**
+     * Closes evicted clients outside of the registry lock. The shared resources are not touched, as the clients
+     * were built with them.
+     */
+    private static void closeAll(List<DiggerClient> evicted) {
+        for (DiggerClient client : evicted) {
+            client.close();
+        }
+    }
+
+    private DiggerClient create(JenkinsAuth auth) throws DiggerClientException {
+        BuildService buildService = new BuildService(BuildService.DEFAULT_FIRST_CHECK_DELAY, BuildService.DEFAULT_POLL_PERIOD);
+        buildService.setMaxStatsJobs(STATS_JOBS_PER_CLIENT);
+        return DiggerClient.builder()
+            .createJobService(jobService)
+            .triggerBuildService(buildService)
+            .artifactsService(new ArtifactsService(executor, ArtifactsService.DEFAULT_PIPE_CHUNK_SIZE, CACHED_BUILDS_PER_CLIENT))
+            .pipelineService(new PipelineService(scheduler, executor, PipelineService.DEFAULT_POLL_PERIOD, CACHED_BUILDS_PER_CLIENT))
+            .executor(executor)
+            .scheduler(scheduler)
+            .connectionManager(connectionManager)
+            .withAuth(auth.getUrl(), auth.getUser(), auth.getPassword())
+            .connectLazily()
+            .build();
+    }
+
+    private static class Entry {
+        final DiggerClient client;
+        volatile long lastAccess;
+
+        Entry(DiggerClient client) {
+            this.client = client;
+        }
+
+        /**
+         * @return when the client was last handed out or used
+         */
+        long lastUsed() {
+            return Math.max(lastAccess, client.getLastUsed());
+        }
+    }
+}
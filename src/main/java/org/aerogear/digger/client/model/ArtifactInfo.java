@@ -0,0 +1,46 @@
+package org.aerogear.digger.client.model;
+
+/**
+ * Metadata of a build artifact as listed by Jenkins.
+ **/
+public class ArtifactInfo {
+
+    private final String fileName;
+    private final String relativePath;
+    private final String displayPath;
+
+    public ArtifactInfo(String fileName, String relativePath, String displayPath) {
+        this.fileName = fileName;
+        this.relativePath = relativePath;
+        this.displayPath = displayPath;
+    }
+
+    /**
+     * @return name of the artifact file
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return path of the artifact relative to the build's artifact root
+     */
+    public String getRelativePath() {
+        return relativePath;
+    }
+
+    /**
+     * @return shortest path that identifies the artifact among the build's artifacts
+     */
+    public String getDisplayPath() {
+        return displayPath;
+    }
+
+    @Override
+    public String toString() {
+        return "ArtifactInfo{" +
+            "fileName='" + fileName + '\'' +
+            ", relativePath='" + relativePath + '\'' +
+            '}';
+    }
+}
@@ -0,0 +1,51 @@
+package org.aerogear.digger.client.model;
+
+import org.aerogear.digger.client.util.DurationHistogram;
+
+/**
+ * Snapshot of the queue wait and build duration statistics collected by the client.
+ * <p>
+ * The field {@link #jobName} is {@code null} for statistics aggregated over all jobs.
+ **/
+public class BuildStats {
+
+    private final String jobName;
+    private final DurationHistogram queueWait;
+    private final DurationHistogram buildDuration;
+
+    public BuildStats(String jobName, DurationHistogram queueWait, DurationHistogram buildDuration) {
+        this.jobName = jobName;
+        this.queueWait = queueWait;
+        this.buildDuration = buildDuration;
+    }
+
+    /**
+     * @return name of the job, {@code null} for aggregated statistics
+     */
+    public String getJobName() {
+        return jobName;
+    }
+
+    /**
+     * @return time (in milliseconds) builds triggered by the client waited in the Jenkins queue before they started executing
+     */
+    public DurationHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    /**
+     * @return duration (in milliseconds) of the finished builds observed by the client
+     */
+    public DurationHistogram getBuildDuration() {
+        return buildDuration;
+    }
+
+    @Override
+    public String toString() {
+        return "BuildStats{" +
+            "jobName='" + jobName + '\'' +
+            ", queueWait=" + queueWait +
+            ", buildDuration=" + buildDuration +
+            '}';
+    }
+}
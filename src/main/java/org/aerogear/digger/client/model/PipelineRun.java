@@ -0,0 +1,59 @@
+package org.aerogear.digger.client.model;
+
+import java.util.List;
+
+/**
+ * Represents a pipeline build with its stages, as reported by the Pipeline REST API.
+ **/
+public class PipelineRun {
+
+    private final int buildNumber;
+    private final PipelineStage.Status status;
+    private final long durationMillis;
+    private final List<PipelineStage> stages;
+
+    public PipelineRun(int buildNumber, PipelineStage.Status status, long durationMillis, List<PipelineStage> stages) {
+        this.buildNumber = buildNumber;
+        this.status = status;
+        this.durationMillis = durationMillis;
+        this.stages = stages;
+    }
+
+    /**
+     * @return the build number
+     */
+    public int getBuildNumber() {
+        return buildNumber;
+    }
+
+    /**
+     * @return status of the build
+     */
+    public PipelineStage.Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return how long the build took so far, in milliseconds
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * @return stages of the build in execution order
+     */
+    public List<PipelineStage> getStages() {
+        return stages;
+    }
+
+    @Override
+    public String toString() {
+        return "PipelineRun{" +
+            "buildNumber=" + buildNumber +
+            ", status=" + status +
+            ", durationMillis=" + durationMillis +
+            ", stages=" + stages +
+            '}';
+    }
+}
@@ -0,0 +1,125 @@
+package org.aerogear.digger.client.model;
+
+/**
+ * Represents a stage of a pipeline build, as reported by the Pipeline REST API.
+ **/
+public class PipelineStage {
+
+    public enum Status {
+        /**
+         * Stage is not executed (yet).
+         */
+        NOT_EXECUTED,
+
+        /**
+         * Stage is currently executing.
+         */
+        IN_PROGRESS,
+
+        /**
+         * Stage is waiting for user input.
+         */
+        PAUSED_PENDING_INPUT,
+
+        SUCCESS,
+
+        UNSTABLE,
+
+        FAILED,
+
+        ABORTED,
+
+        /**
+         * Status reported by Jenkins is not known by the client.
+         */
+        UNKNOWN;
+
+        /**
+         * @param status status reported by Jenkins
+         * @return matching status, {@link #UNKNOWN} if there is none
+         */
+        public static Status parse(String status) {
+            for (Status candidate : values()) {
+                if (candidate.name().equals(status)) {
+                    return candidate;
+                }
+            }
+            return UNKNOWN;
+        }
+
+        /**
+         * @return whether the stage or build is still running
+         */
+        public boolean isRunning() {
+            return this == IN_PROGRESS || this == PAUSED_PENDING_INPUT;
+        }
+
+        /**
+         * Statuses not known by the client and stages not executed yet are not finished.
+         *
+         * @return whether the stage or build is finished and its status won't change anymore
+         */
+        public boolean isFinished() {
+            return this == SUCCESS || this == FAILED || this == ABORTED || this == UNSTABLE;
+        }
+    }
+
+    private final String id;
+    private final String name;
+    private final Status status;
+    private final long startTimeMillis;
+    private final long durationMillis;
+
+    public PipelineStage(String id, String name, Status status, long startTimeMillis, long durationMillis) {
+        this.id = id;
+        this.name = name;
+        this.status = status;
+        this.startTimeMillis = startTimeMillis;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * @return id of the stage, unique within the build
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return name of the stage
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return status of the stage
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return when the stage started, in milliseconds since epoch
+     */
+    public long getStartTimeMillis() {
+        return startTimeMillis;
+    }
+
+    /**
+     * @return how long the stage took so far, in milliseconds
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "PipelineStage{" +
+            "id='" + id + '\'' +
+            ", name='" + name + '\'' +
+            ", status=" + status +
+            ", durationMillis=" + durationMillis +
+            '}';
+    }
+}
@@ -0,0 +1,60 @@
+package org.aerogear.digger.client.model;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Time spent (in milliseconds) in the phases of starting up a client.
+ * <p>
+ * Only the phases that are completed are present.
+ **/
+public class StartupTimings {
+
+    /**
+     * Creating the Jenkins server client.
+     */
+    public static final String CLIENT = "client";
+
+    /**
+     * Initializing the template engine and compiling the job template.
+     */
+    public static final String TEMPLATE = "template";
+
+    /**
+     * Opening the first connection to Jenkins, including the TLS handshake.
+     */
+    public static final String CONNECTION = "connection";
+
+    /**
+     * Wall clock time of {@code DiggerClient.warmUp()}. Smaller than the sum of the phases as they run in parallel.
+     */
+    public static final String WARM_UP = "warmUp";
+
+    private final Map<String, Long> phases;
+
+    public StartupTimings(Map<String, Long> phases) {
+        this.phases = Collections.unmodifiableMap(new LinkedHashMap<String, Long>(phases));
+    }
+
+    /**
+     * @return phase names mapped to the milliseconds spent in them
+     */
+    public Map<String, Long> getPhases() {
+        return phases;
+    }
+
+    /**
+     * @param phase name of the phase, e.g. {@link #CONNECTION}
+     * @return milliseconds spent in the phase, -1 if the phase is not completed
+     */
+    public long get(String phase) {
+        Long time = phases.get(phase);
+        return time == null ? -1 : time;
+    }
+
+    @Override
+    public String toString() {
+        return "StartupTimings" + phases;
+    }
+}
@@ -0,0 +1,118 @@
+package org.aerogear.digger.client.model;
+
+/**
+ * Represents the result of a test case, as reported by the JUnit test report of a build.
+ **/
+public class TestCaseResult {
+
+    public enum Status {
+        PASSED,
+
+        SKIPPED,
+
+        FAILED,
+
+        /**
+         * Test passed, but failed in the previous build.
+         */
+        FIXED,
+
+        /**
+         * Test failed, but passed in the previous build.
+         */
+        REGRESSION,
+
+        /**
+         * Status reported by Jenkins is not known by the client.
+         */
+        UNKNOWN;
+
+        /**
+         * @param status status reported by Jenkins
+         * @return matching status, {@link #UNKNOWN} if there is none
+         */
+        public static Status parse(String status) {
+            for (Status candidate : values()) {
+                if (candidate.name().equals(status)) {
+                    return candidate;
+                }
+            }
+            return UNKNOWN;
+        }
+
+        /**
+         * @return whether the test failed
+         */
+        public boolean isFailure() {
+            return this == FAILED || this == REGRESSION;
+        }
+    }
+
+    private final String className;
+    private final String name;
+    private final Status status;
+    private final long durationMillis;
+    private final String errorDetails;
+    private final String errorStackTrace;
+
+    public TestCaseResult(String className, String name, Status status, long durationMillis, String errorDetails, String errorStackTrace) {
+        this.className = className;
+        this.name = name;
+        this.status = status;
+        this.durationMillis = durationMillis;
+        this.errorDetails = errorDetails;
+        this.errorStackTrace = errorStackTrace;
+    }
+
+    /**
+     * @return fully qualified name of the test class
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * @return name of the test case
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return status of the test case
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return how long the test case took, in milliseconds
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * @return failure message, {@code null} if the test didn't fail
+     */
+    public String getErrorDetails() {
+        return errorDetails;
+    }
+
+    /**
+     * @return failure stack trace, {@code null} if the test didn't fail
+     */
+    public String getErrorStackTrace() {
+        return errorStackTrace;
+    }
+
+    @Override
+    public String toString() {
+        return "TestCaseResult{" +
+            "className='" + className + '\'' +
+            ", name='" + name + '\'' +
+            ", status=" + status +
+            ", durationMillis=" + durationMillis +
+            '}';
+    }
+}
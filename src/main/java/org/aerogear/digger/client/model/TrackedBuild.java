@@ -0,0 +1,74 @@
+package org.aerogear.digger.client.model;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A build triggered by the client, as recorded in the build journal.
+ * <p>
+ * The field {@link #status} is {@code null} if the build has no known status yet, or if Jenkins
+ * does not know the queue item anymore when it is resumed.
+ **/
+public class TrackedBuild {
+
+    private final String jobName;
+    private final Map<String, String> parameters;
+    private final String queueItemUrl;
+    private final long triggerTime;
+    private final BuildStatus status;
+
+    public TrackedBuild(String jobName, Map<String, String> parameters, String queueItemUrl, long triggerTime, BuildStatus status) {
+        this.jobName = jobName;
+        this.parameters = Collections.unmodifiableMap(new LinkedHashMap<String, String>(parameters));
+        this.queueItemUrl = queueItemUrl;
+        this.triggerTime = triggerTime;
+        this.status = status;
+    }
+
+    /**
+     * @return name of the job
+     */
+    public String getJobName() {
+        return jobName;
+    }
+
+    /**
+     * @return parameters the build was triggered with, empty for a build without parameters
+     */
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * @return url of the Jenkins queue item of the build
+     */
+    public String getQueueItemUrl() {
+        return queueItemUrl;
+    }
+
+    /**
+     * @return when the build was triggered, in milliseconds since epoch
+     */
+    public long getTriggerTime() {
+        return triggerTime;
+    }
+
+    /**
+     * @return last known status of the build
+     */
+    public BuildStatus getStatus() {
+        return status;
+    }
+
+    @Override
+    public String toString() {
+        return "TrackedBuild{" +
+            "jobName='" + jobName + '\'' +
+            ", parameters=" + parameters +
+            ", queueItemUrl='" + queueItemUrl + '\'' +
+            ", triggerTime=" + triggerTime +
+            ", status=" + status +
+            '}';
+    }
+}
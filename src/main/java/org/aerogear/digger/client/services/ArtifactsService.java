@@ -1,12 +1,19 @@
 package org.aerogear.digger.client.services;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.offbytwo.jenkins.JenkinsServer;
+import com.offbytwo.jenkins.client.JenkinsHttpClient;
 import com.offbytwo.jenkins.model.Artifact;
 import com.offbytwo.jenkins.model.Build;
 import com.offbytwo.jenkins.model.BuildWithDetails;
 import com.offbytwo.jenkins.model.JobWithDetails;
+import org.aerogear.digger.client.model.ArtifactInfo;
+import org.aerogear.digger.client.sink.ArtifactSink;
+import org.aerogear.digger.client.util.DaemonThreadFactory;
 import org.aerogear.digger.client.util.DiggerClientException;
 import org.apache.commons.io.IOUtils;
+import org.apache.http.conn.ConnectionReleaseTrigger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,9 +21,26 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Service used to retrieve artifacts
@@ -24,8 +48,80 @@ import java.util.List;
 public class ArtifactsService {
 
     /**
+     * Default value of {@link #pipeChunkSize}
+     */
+    public static final int DEFAULT_PIPE_CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * Number of chunks used by {@link #pipeArtifact(JenkinsServer, String, int, String, ArtifactSink)}.
+     * One chunk is filled by the download while the other one is written to the sink.
+     */
+    private static final int PIPE_CHUNKS = 2;
+
+    /**
+     * How long (in milliseconds) an aborted pipe waits for its download to stop after closing the artifact stream
+     * under it. Closing is the only way to unblock a read stalled on the network.
+     */
+    private static final long PIPE_ABORT_TIMEOUT = 30 * 1000L;
+
+    /**
+     * How often (in milliseconds) the sink side of a pipe checks that the download is still running while waiting for data.
+     */
+    private static final long PIPE_CHECK_PERIOD = 1000L;
+
+    /**
+     * Number of artifacts fetched with one request by {@link #listArtifacts(JenkinsServer, String, int, String)}
+     */
+    public static final int ARTIFACT_PAGE_SIZE = 100;
+
+    /**
+     * Default value of {@link #maxIndexedBuilds}
+     */
+    public static final int DEFAULT_MAX_INDEXED_BUILDS = 64;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final ExecutorService executor;
+    private final int pipeChunkSize;
+
+    /**
+     * Number of finished builds whose artifact index is kept in memory. An index holds the details of the build
+     * and its artifact list.
+     */
+    private final int maxIndexedBuilds;
+
+    private final Map<String, ArtifactIndex> indexCache = new LinkedHashMap<String, ArtifactIndex>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ArtifactIndex> eldest) {
+            return size() > maxIndexedBuilds;
+        }
+    };
+
+    /**
+     * Uses threads of its own, which are never shut down. Clients built without a artifacts service use the threads of
+     * the client instead, released by {@link org.aerogear.digger.client.DiggerClient#close()}.
      */
     public ArtifactsService() {
+        this(Executors.newCachedThreadPool(new DaemonThreadFactory("digger-artifacts")), DEFAULT_PIPE_CHUNK_SIZE);
+    }
+
+    /**
+     * @param executor      executor used to run the download side of artifact pipes
+     * @param pipeChunkSize size of the chunks (in bytes) handed to {@link ArtifactSink}s. Memory used by a pipe is twice this size.
+     */
+    public ArtifactsService(ExecutorService executor, int pipeChunkSize) {
+        this(executor, pipeChunkSize, DEFAULT_MAX_INDEXED_BUILDS);
+    }
+
+    /**
+     * @param executor         executor used to run the download side of artifact pipes
+     * @param pipeChunkSize    size of the chunks (in bytes) handed to {@link ArtifactSink}s. Memory used by a pipe is twice this size.
+     * @param maxIndexedBuilds number of finished builds whose artifact index is kept in memory
+     */
+    public ArtifactsService(ExecutorService executor, int pipeChunkSize, int maxIndexedBuilds) {
+        this.executor = executor;
+        this.pipeChunkSize = pipeChunkSize;
+        this.maxIndexedBuilds = maxIndexedBuilds;
     }
 
     private static final Logger LOG = LoggerFactory.getLogger(ArtifactsService.class);
@@ -70,20 +166,26 @@ public class ArtifactsService {
      */
     public InputStream streamArtifact(JenkinsServer jenkins, String jobName, int buildNumber, String artifactName) throws DiggerClientException {
         try {
-            JobWithDetails job = jenkins.getJob(jobName);
-            if (job == null) {
-                LOG.error("Cannot fetch job from jenkins {0}", jobName);
-                throw new DiggerClientException("Cannot fetch job from jenkins");
-            }
-            Build build = job.getBuildByNumber(buildNumber);
-            BuildWithDetails buildWithDetails = build.details();
-            List<Artifact> artifacts = buildWithDetails.getArtifacts();
-            for (Artifact artifact : artifacts) {
-                if (artifact.getFileName().matches(artifactName)) {
-                    LOG.debug("Streaming artifact {0}", artifactName);
-                    return buildWithDetails.downloadArtifact(artifact);
+            ArtifactIndex index = getCachedIndex(jobName, buildNumber);
+            if (index == null) {
+                JobWithDetails job = jenkins.getJob(jobName);
+                if (job == null) {
+                    LOG.error("Cannot fetch job from jenkins {0}", jobName);
+                    throw new DiggerClientException("Cannot fetch job from jenkins");
+                }
+                Build build = job.getBuildByNumber(buildNumber);
+                BuildWithDetails buildWithDetails = build.details();
+                index = new ArtifactIndex(buildWithDetails);
+                if (!buildWithDetails.isBuilding()) {
+                    // artifacts of finished builds never change
+                    cacheIndex(jobName, buildNumber, index);
                 }
             }
+            Artifact artifact = index.find(artifactName);
+            if (artifact != null) {
+                LOG.debug("Streaming artifact {0}", artifactName);
+                return index.build.downloadArtifact(artifact);
+            }
         } catch (URISyntaxException e) {
             LOG.error("Invalid job name {0}", jobName, e);
             throw new DiggerClientException(e);
@@ -95,4 +197,363 @@ public class ArtifactsService {
         return null;
     }
 
+    /**
+     * List artifact metadata for specific job and build number.
+     * <p>
+     * Artifacts are fetched lazily from Jenkins in pages of {@link #ARTIFACT_PAGE_SIZE} while the returned iterable is
+     * iterated, so builds with thousands of artifacts are never loaded in full. If the artifacts of a finished build
+     * are already indexed by {@link #streamArtifact(JenkinsServer, String, int, String)}, no request is made at all.
+     * <p>
+     * Problems while fetching a page are reported as {@link IllegalStateException} from the iterator.
+     *
+     * @param jobName     name of the job
+     * @param buildNumber job build number
+     * @param filter      regexp the artifact file names should match, or {@code null} to list all artifacts
+     * @return artifacts of the build matching the filter
+     * @throws DiggerClientException when problem with fetching job from jenkins
+     */
+    public Iterable<ArtifactInfo> listArtifacts(JenkinsServer jenkins, String jobName, int buildNumber, final String filter) throws DiggerClientException {
+        final ArtifactIndex index = getCachedIndex(jobName, buildNumber);
+        if (index != null) {
+            List<ArtifactInfo> artifacts = new ArrayList<ArtifactInfo>();
+            for (Artifact artifact : index.artifacts) {
+                if (filter == null || artifact.getFileName().matches(filter)) {
+                    artifacts.add(new ArtifactInfo(artifact.getFileName(), artifact.getRelativePath(), artifact.getDisplayPath()));
+                }
+            }
+            return artifacts;
+        }
+
+        final JobWithDetails job;
+        try {
+            job = jenkins.getJob(jobName);
+        } catch (IOException e) {
+            LOG.error("Problem when fetching artifacts for {} {}", jobName, buildNumber, e);
+            throw new DiggerClientException(e);
+        }
+        if (job == null) {
+            LOG.error("Cannot fetch job from jenkins {}", jobName);
+            throw new DiggerClientException("Cannot fetch job from jenkins");
+        }
+        final String buildUrl = job.getUrl() + buildNumber + "/";
+        return new Iterable<ArtifactInfo>() {
+            @Override
+            public Iterator<ArtifactInfo> iterator() {
+                return new ArtifactPageIterator(job.getClient(), buildUrl, filter);
+            }
+        };
+    }
+
+    /**
+     * Stream artifact for specific job, build number and artifact name into the given sink without staging it locally.
+     * If name would be an regular expression method would stream the first match.
+     * <p>
+     * Download and sink writes overlap: while one chunk is written to the sink the next one is downloaded.
+     * Memory used is fixed to two chunks regardless of the artifact size.
+     *
+     * @param jobName      name of the job
+     * @param buildNumber  job build number
+     * @param artifactName name of the artifact to fetch - can be regexp for example *.apk
+     * @param sink         destination of the artifact
+     * @return number of bytes written to the sink
+     * @throws DiggerClientException when problem with fetching artifacts from jenkins
+     * @throws IOException           when artifact cannot be read or written to the sink
+     */
+    public long pipeArtifact(JenkinsServer jenkins, String jobName, int buildNumber, String artifactName, ArtifactSink sink) throws DiggerClientException, IOException {
+        InputStream inputStream = streamArtifact(jenkins, jobName, buildNumber, artifactName);
+        if (inputStream == null) {
+            throw new DiggerClientException("Cannot fetch artifacts from jenkins");
+        }
+        return pipe(inputStream, artifactName, sink);
+    }
+
+    long pipe(final InputStream inputStream, String artifactName, ArtifactSink sink) throws IOException {
+        final BlockingQueue<Chunk> free = new ArrayBlockingQueue<Chunk>(PIPE_CHUNKS);
+        // one extra slot so a failure can always be reported
+        final BlockingQueue<Chunk> filled = new ArrayBlockingQueue<Chunk>(PIPE_CHUNKS + 1);
+        for (int i = 0; i < PIPE_CHUNKS; i++) {
+            free.add(new Chunk(pipeChunkSize));
+        }
+
+        final CountDownLatch downloadFinished = new CountDownLatch(1);
+        final Future<?> download = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Chunk chunk;
+                    do {
+                        chunk = free.take();
+                        chunk.fill(inputStream);
+                        filled.put(chunk);
+                    } while (!chunk.eof);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (IOException e) {
+                    filled.offer(Chunk.failed(e));
+                } catch (Throwable e) {
+                    filled.offer(Chunk.failed(new IOException("Download failed: " + e, e)));
+                } finally {
+                    downloadFinished.countDown();
+                }
+            }
+        });
+
+        boolean completed = false;
+        long total = 0;
+        try {
+            sink.open(artifactName);
+            Chunk chunk;
+            do {
+                chunk = takeFilled(filled, downloadFinished);
+                if (chunk.error != null) {
+                    throw chunk.error;
+                }
+                if (chunk.length > 0) {
+                    sink.write(chunk.data, 0, chunk.length);
+                    total += chunk.length;
+                }
+                free.put(chunk);
+            } while (!chunk.eof);
+            sink.complete();
+            completed = true;
+            LOG.debug("Piped {} bytes of artifact {}", total, artifactName);
+            return total;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while piping artifact " + artifactName);
+        } finally {
+            if (!completed) {
+                download.cancel(true);
+                abortQuietly(inputStream);
+                sink.abort();
+                awaitDownload(downloadFinished, artifactName);
+            }
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    /**
+     * Waits for the next filled chunk, failing if the download stopped without handing one over.
+     */
+    private static Chunk takeFilled(BlockingQueue<Chunk> filled, CountDownLatch downloadFinished) throws InterruptedException, IOException {
+        while (true) {
+            Chunk chunk = filled.poll(PIPE_CHECK_PERIOD, TimeUnit.MILLISECONDS);
+            if (chunk != null) {
+                return chunk;
+            }
+            if (downloadFinished.getCount() == 0) {
+                chunk = filled.poll();
+                if (chunk == null) {
+                    throw new IOException("Download stopped without reaching the end of the artifact");
+                }
+                return chunk;
+            }
+        }
+    }
+
+    /**
+     * Closes the stream of an aborted pipe, so that a read stalled on the network fails right away.
+     * Connections of HTTP responses are aborted instead, closing them would read the rest of the artifact.
+     */
+    private static void abortQuietly(InputStream inputStream) {
+        if (inputStream instanceof ConnectionReleaseTrigger) {
+            try {
+                ((ConnectionReleaseTrigger) inputStream).abortConnection();
+            } catch (IOException e) {
+                LOG.debug("Problem when aborting artifact download", e);
+            }
+        } else {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    /**
+     * Waits until the cancelled download leaves the closed artifact stream, so that no thread keeps using it
+     * after the pipe returns.
+     */
+    private static void awaitDownload(CountDownLatch downloadFinished, String artifactName) {
+        boolean interrupted = false;
+        try {
+            long deadline = System.currentTimeMillis() + PIPE_ABORT_TIMEOUT;
+            while (true) {
+                long remaining = deadline - System.currentTimeMillis();
+                try {
+                    if (!downloadFinished.await(Math.max(remaining, 0), TimeUnit.MILLISECONDS)) {
+                        LOG.warn("Download of artifact {} did not stop in {} msecs after closing its stream", artifactName, PIPE_ABORT_TIMEOUT);
+                    }
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private ArtifactIndex getCachedIndex(String jobName, int buildNumber) {
+        synchronized (indexCache) {
+            return indexCache.get(jobName + "#" + buildNumber);
+        }
+    }
+
+    private void cacheIndex(String jobName, int buildNumber, ArtifactIndex index) {
+        synchronized (indexCache) {
+            indexCache.put(jobName + "#" + buildNumber, index);
+        }
+    }
+
+    /**
+     * Artifacts of a build, indexed by file name.
+     */
+    private static class ArtifactIndex {
+        final BuildWithDetails build;
+        final List<Artifact> artifacts;
+        final Map<String, Artifact> byName = new HashMap<String, Artifact>();
+
+        ArtifactIndex(BuildWithDetails build) {
+            this.build = build;
+            this.artifacts = build.getArtifacts() == null ? Collections.<Artifact>emptyList() : build.getArtifacts();
+            for (Artifact artifact : artifacts) {
+                if (!byName.containsKey(artifact.getFileName())) {
+                    byName.put(artifact.getFileName(), artifact);
+                }
+            }
+        }
+
+        /**
+         * Exact names are looked up directly, anything else is matched as a regexp against all the artifacts.
+         */
+        Artifact find(String artifactName) {
+            Artifact artifact = byName.get(artifactName);
+            if (artifact != null) {
+                return artifact;
+            }
+            for (Artifact candidate : artifacts) {
+                if (candidate.getFileName().matches(artifactName)) {
+                    return candidate;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Iterates over the artifacts of a build fetching them page by page using {@code tree=artifacts[...]{start,end}}.
+     */
+    private static class ArtifactPageIterator implements Iterator<ArtifactInfo> {
+        private final JenkinsHttpClient client;
+        private final String buildUrl;
+        private final String filter;
+
+        private Iterator<ArtifactInfo> page = Collections.<ArtifactInfo>emptyList().iterator();
+        private int nextStart = 0;
+        private boolean lastPage = false;
+        private ArtifactInfo next;
+
+        ArtifactPageIterator(JenkinsHttpClient client, String buildUrl, String filter) {
+            this.client = client;
+            this.buildUrl = buildUrl;
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                if (page.hasNext()) {
+                    ArtifactInfo candidate = page.next();
+                    if (filter == null || candidate.getFileName().matches(filter)) {
+                        next = candidate;
+                    }
+                } else if (lastPage) {
+                    return false;
+                } else {
+                    page = fetchPage().iterator();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public ArtifactInfo next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ArtifactInfo result = next;
+            next = null;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private List<ArtifactInfo> fetchPage() {
+            final int start = nextStart;
+            final int end = start + ARTIFACT_PAGE_SIZE;
+            try {
+                String tree = "artifacts[fileName,relativePath,displayPath]{" + start + "," + end + "}";
+                InputStream json = client.getFile(URI.create(buildUrl + "api/json?tree=" + URLEncoder.encode(tree, "UTF-8")));
+                JsonNode root;
+                try {
+                    root = MAPPER.readTree(json);
+                } finally {
+                    IOUtils.closeQuietly(json);
+                }
+                List<ArtifactInfo> artifacts = new ArrayList<ArtifactInfo>();
+                for (JsonNode node : root.path("artifacts")) {
+                    artifacts.add(new ArtifactInfo(node.path("fileName").asText(), node.path("relativePath").asText(), node.path("displayPath").asText()));
+                }
+                LOG.debug("Fetched {} artifacts from {} starting at {}", artifacts.size(), buildUrl, start);
+                nextStart = end;
+                lastPage = artifacts.size() < ARTIFACT_PAGE_SIZE;
+                return artifacts;
+            } catch (IOException e) {
+                LOG.error("Problem when fetching artifacts for {}", buildUrl, e);
+                throw new IllegalStateException("Cannot fetch artifacts from jenkins", e);
+            }
+        }
+    }
+
+    /**
+     * Buffer passed between the download and the sink side of a pipe.
+     */
+    private static class Chunk {
+        final byte[] data;
+        final IOException error;
+        int length;
+        boolean eof;
+
+        Chunk(int size) {
+            this.data = new byte[size];
+            this.error = null;
+        }
+
+        private Chunk(IOException error) {
+            this.data = null;
+            this.error = error;
+        }
+
+        static Chunk failed(IOException error) {
+            return new Chunk(error);
+        }
+
+        /**
+         * Reads until the chunk is full or the stream is exhausted.
+         */
+        void fill(InputStream inputStream) throws IOException {
+            length = 0;
+            while (length < data.length) {
+                int bytesRead = inputStream.read(data, length, data.length - length);
+                if (bytesRead == -1) {
+                    eof = true;
+                    return;
+                }
+                length += bytesRead;
+            }
+        }
+    }
 }
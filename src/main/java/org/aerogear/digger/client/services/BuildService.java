@@ -1,5 +1,7 @@
 package org.aerogear.digger.client.services;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.offbytwo.jenkins.JenkinsServer;
 import com.offbytwo.jenkins.model.Build;
 import com.offbytwo.jenkins.model.BuildWithDetails;
@@ -8,12 +10,41 @@ import com.offbytwo.jenkins.model.JobWithDetails;
 import com.offbytwo.jenkins.model.QueueItem;
 import com.offbytwo.jenkins.model.QueueReference;
 import org.aerogear.digger.client.DiggerClient;
+import org.aerogear.digger.client.model.BuildStats;
 import org.aerogear.digger.client.model.BuildStatus;
+import org.aerogear.digger.client.model.TrackedBuild;
+import org.aerogear.digger.client.util.BuildJournal;
+import org.aerogear.digger.client.util.ConsoleLogCache;
 import org.aerogear.digger.client.util.DiggerClientException;
+import org.aerogear.digger.client.util.DurationHistogram;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpResponseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /**
@@ -33,10 +64,75 @@ public class BuildService {
      */
     public static final long DEFAULT_POLL_PERIOD = 2 * 1000L;
 
+    /**
+     * Default value of {@link #maxStatsJobs}
+     */
+    public static final int DEFAULT_MAX_STATS_JOBS = 256;
+
+    /**
+     * Number of build numbers remembered per job to avoid recording the duration of a build twice.
+     */
+    private static final int MAX_RECORDED_BUILDS = 64;
+
+    /**
+     * How long (in milliseconds) a triggered build can be attached to by later triggers of the same job and parameters.
+     * Older builds are forgotten, so that a retry never attaches to a queue item Jenkins may have purged already.
+     */
+    public static final long MAX_PENDING_TRIGGER_AGE = 10 * 60 * 1000L;
+
+    /**
+     * How long (in milliseconds) to wait before checking again whether a build followed until it finishes is done.
+     */
+    public static final long COMPLETION_POLL_PERIOD = 30 * 1000L;
+
+    /**
+     * Following a build until it finishes stops after checking it failed this many times in a row.
+     */
+    private static final int MAX_COMPLETION_ERRORS = 10;
+
+    /**
+     * Encoding of the console logs kept in the {@link ConsoleLogCache}.
+     */
+    private static final String CONSOLE_ENCODING = "UTF-8";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
 
     private long firstCheckDelay;
     private long pollPeriod;
 
+    /**
+     * Number of jobs statistics are kept for. Each job takes about 13KB.
+     */
+    private volatile int maxStatsJobs = DEFAULT_MAX_STATS_JOBS;
+
+    /**
+     * Statistics by job name, least recently used first.
+     */
+    private final Map<String, JobStats> stats = new LinkedHashMap<String, JobStats>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, JobStats> eldest) {
+            return size() > maxStatsJobs;
+        }
+    };
+
+    private BuildJournal journal;
+    private boolean cancelOnTimeout;
+    private boolean deduplicateTriggers;
+    private ConsoleLogCache consoleLogCache;
+    private volatile ScheduledExecutorService completionScheduler;
+    private volatile Executor completionExecutor;
+
+    /**
+     * Builds triggered by this service that are still waiting in the queue, by {@link #triggerKey(String, Map)}.
+     */
+    private final ConcurrentMap<String, PendingBuild> pendingTriggers = new ConcurrentHashMap<String, PendingBuild>();
+
+    /**
+     * Builds being triggered right now, by {@link #triggerKey(String, Map)}. Callers triggering the same build wait
+     * for the latch, then attach to the queue item. Guarded by {@link #pendingTriggers}.
+     */
+    private final Map<String, CountDownLatch> triggersInFlight = new HashMap<String, CountDownLatch>();
+
     /**
      * @param firstCheckDelay how long should we wait (in milliseconds) before we start checking the queue item status
      * @param pollPeriod      how long should we wait (in milliseconds) before checking the queue item status for next time
@@ -46,6 +142,108 @@ public class BuildService {
         this.pollPeriod = pollPeriod;
     }
 
+    /**
+     * @return journal of the triggered builds, {@code null} if builds are not journaled
+     */
+    public BuildJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * The outstanding builds of the journal that are still waiting in the queue can be attached to by later triggers
+     * of the same job and parameters, like the builds triggered by this service, see {@link #setDeduplicateTriggers(boolean)}.
+     *
+     * @param journal journal to record triggered builds and their status changes in, {@code null} to disable journaling
+     */
+    public void setJournal(BuildJournal journal) {
+        this.journal = journal;
+        if (journal != null) {
+            seedPendingTriggers(journal);
+        }
+    }
+
+    /**
+     * @return whether queue items are cancelled when their builds time out
+     */
+    public boolean isCancelOnTimeout() {
+        return cancelOnTimeout;
+    }
+
+    /**
+     * @param cancelOnTimeout cancel the queue item of a build that is still in the queue when the timeout passes,
+     *                        so it doesn't take an executor nobody waits for. Applies to triggered and to resumed
+     *                        builds. Items other callers still wait for are kept
+     */
+    public void setCancelOnTimeout(boolean cancelOnTimeout) {
+        this.cancelOnTimeout = cancelOnTimeout;
+    }
+
+    /**
+     * @return whether triggers attach to builds of the same job and parameters that are still in the queue
+     */
+    public boolean isDeduplicateTriggers() {
+        return deduplicateTriggers;
+    }
+
+    /**
+     * @param deduplicateTriggers instead of queueing another build, attach to a build with the same job and parameters
+     *                            triggered by this service, or outstanding in its journal, that is still waiting in
+     *                            the queue, e.g. after a timeout or a restart.
+     *                            Builds triggered more than {@link #MAX_PENDING_TRIGGER_AGE} ago are not attached to
+     */
+    public void setDeduplicateTriggers(boolean deduplicateTriggers) {
+        this.deduplicateTriggers = deduplicateTriggers;
+    }
+
+    /**
+     * @return cache of the console logs of finished builds, {@code null} if logs are not cached
+     */
+    public ConsoleLogCache getConsoleLogCache() {
+        return consoleLogCache;
+    }
+
+    /**
+     * @param consoleLogCache cache to keep the console logs of finished builds in, {@code null} to disable caching
+     */
+    public void setConsoleLogCache(ConsoleLogCache consoleLogCache) {
+        this.consoleLogCache = consoleLogCache;
+    }
+
+
+    /**
+     * @return number of jobs statistics are kept for
+     */
+    public int getMaxStatsJobs() {
+        return maxStatsJobs;
+    }
+
+    /**
+     * @param maxStatsJobs number of jobs statistics are kept for. The statistics of the least recently used job are
+     *                     dropped when a job over the limit records something
+     */
+    public void setMaxStatsJobs(int maxStatsJobs) {
+        this.maxStatsJobs = maxStatsJobs;
+    }
+
+    /**
+     * @return whether builds that start executing are followed until they finish
+     */
+    public boolean isTrackingCompletions() {
+        return completionScheduler != null;
+    }
+
+    /**
+     * Follow the builds that start executing until they finish and record their durations, so that the stats cover
+     * every build the service saw start and not only the ones whose logs or stages are read. Builds are checked every
+     * {@link #COMPLETION_POLL_PERIOD}. When disabled, the builds followed so far are dropped at their next check.
+     *
+     * @param scheduler scheduler used to time the checks, {@code null} to stop following builds
+     * @param executor  executor used to fetch the followed builds, or null to fetch on the scheduler
+     */
+    public void setCompletionTracking(ScheduledExecutorService scheduler, Executor executor) {
+        this.completionExecutor = executor;
+        this.completionScheduler = scheduler;
+    }
 
     /**
      * Get build logs for specific job and build number
@@ -57,20 +255,95 @@ public class BuildService {
      */
     public String getBuildLogs(JenkinsServer jenkins, String jobName, int buildNumber) throws DiggerClientException {
         try {
-            JobWithDetails job = jenkins.getJob(jobName);
-            if (job == null) {
-                LOG.error("Cannot fetch job from jenkins {0}", jobName);
-                throw new DiggerClientException("Cannot fetch job from jenkins");
-            }
-            Build build = job.getBuildByNumber(buildNumber);
-            BuildWithDetails buildWithDetails = build.details();
-            return buildWithDetails.getConsoleOutputText();
+            InputStream cached = openCachedLogs(jobName, buildNumber);
+            if (cached != null) {
+                try {
+                    return IOUtils.toString(cached, CONSOLE_ENCODING);
+                } finally {
+                    IOUtils.closeQuietly(cached);
+                }
+            }
+            BuildWithDetails buildWithDetails = fetchBuild(jenkins, jobName, buildNumber);
+            String logs = buildWithDetails.getConsoleOutputText();
+            if (consoleLogCache != null && !buildWithDetails.isBuilding()) {
+                try {
+                    consoleLogCache.put(jobName, buildNumber, buildWithDetails.getDuration(), new ByteArrayInputStream(logs.getBytes(CONSOLE_ENCODING)));
+                } catch (IOException e) {
+                    LOG.warn("Cannot cache logs for {} {}", jobName, buildNumber, e);
+                }
+            }
+            return logs;
         } catch (IOException e) {
             LOG.error("Problem when fetching logs for {0} {1}", jobName, buildNumber, e);
             throw new DiggerClientException(e);
         }
     }
 
+    /**
+     * See the documentation in {@link DiggerClient#streamBuildLogs(String, int)}
+     *
+     * @param jenkins     Jenkins server client
+     * @param jobName     name of the job
+     * @param buildNumber job build number
+     * @return stream of the console log, to be closed by the caller
+     * @throws DiggerClientException when problem with fetching logs from jenkins
+     * @see DiggerClient#streamBuildLogs(String, int)
+     */
+    public InputStream streamBuildLogs(JenkinsServer jenkins, String jobName, int buildNumber) throws DiggerClientException {
+        try {
+            InputStream cached = openCachedLogs(jobName, buildNumber);
+            if (cached != null) {
+                return cached;
+            }
+            BuildWithDetails buildWithDetails = fetchBuild(jenkins, jobName, buildNumber);
+            InputStream download = buildWithDetails.getClient().getFile(URI.create(buildWithDetails.getUrl() + "consoleText"));
+            if (consoleLogCache != null && !buildWithDetails.isBuilding()) {
+                try {
+                    return consoleLogCache.putWhileReading(jobName, buildNumber, buildWithDetails.getDuration(), download);
+                } catch (IOException e) {
+                    LOG.warn("Cannot cache logs for {} {}, streaming them uncached", jobName, buildNumber, e);
+                }
+            }
+            return download;
+        } catch (IOException e) {
+            LOG.error("Problem when fetching logs for {} {}", jobName, buildNumber, e);
+            throw new DiggerClientException(e);
+        }
+    }
+
+    /**
+     * Opens the cached log of a build. A build served from the cache is not fetched, so its duration is recorded here.
+     */
+    private InputStream openCachedLogs(String jobName, int buildNumber) {
+        if (consoleLogCache == null) {
+            return null;
+        }
+        try {
+            ConsoleLogCache.CachedLog cached = consoleLogCache.open(jobName, buildNumber);
+            if (cached != null && cached.getBuildDuration() >= 0) {
+                recordBuildDuration(jobName, buildNumber, cached.getBuildDuration());
+            }
+            return cached;
+        } catch (IOException e) {
+            LOG.warn("Cannot read cached logs for {} {}", jobName, buildNumber, e);
+            return null;
+        }
+    }
+
+    private BuildWithDetails fetchBuild(JenkinsServer jenkins, String jobName, int buildNumber) throws IOException, DiggerClientException {
+        JobWithDetails job = jenkins.getJob(jobName);
+        if (job == null) {
+            LOG.error("Cannot fetch job from jenkins {0}", jobName);
+            throw new DiggerClientException("Cannot fetch job from jenkins");
+        }
+        Build build = job.getBuildByNumber(buildNumber);
+        BuildWithDetails buildWithDetails = build.details();
+        if (!buildWithDetails.isBuilding()) {
+            recordBuildDuration(jobName, buildNumber, buildWithDetails.getDuration());
+        }
+        return buildWithDetails;
+    }
+
     /**
      * See the documentation in {@link DiggerClient#build(String, long)}
      *
@@ -83,9 +356,41 @@ public class BuildService {
      * @see DiggerClient#build(String, long)
      */
     public BuildStatus build(JenkinsServer jenkinsServer, String jobName, long timeout) throws IOException, InterruptedException {
+        return build(jenkinsServer, jobName, Collections.<String, String>emptyMap(), timeout);
+    }
+
+    /**
+     * See the documentation in {@link DiggerClient#build(String, Map, long)}
+     *
+     * @param jenkinsServer Jenkins server client
+     * @param jobName       name of the job
+     * @param parameters    build parameters, empty for a build without parameters
+     * @param timeout       timeout
+     * @return the build status
+     * @throws IOException          if connection problems occur during connecting to Jenkins
+     * @throws InterruptedException if a problem occurs during sleeping between checks
+     * @see DiggerClient#build(String, Map, long)
+     */
+    public BuildStatus build(JenkinsServer jenkinsServer, String jobName, Map<String, String> parameters, long timeout) throws IOException, InterruptedException {
+        return buildAll(jenkinsServer, jobName, Collections.singletonList(parameters), timeout).get(0);
+    }
+
+    /**
+     * See the documentation in {@link DiggerClient#buildAll(String, List, long)}
+     *
+     * @param jenkinsServer Jenkins server client
+     * @param jobName       name of the job
+     * @param parameterSets build parameters of every build to trigger
+     * @param timeout       timeout
+     * @return the build statuses, in the order of the parameter sets
+     * @throws IOException          if connection problems occur during connecting to Jenkins
+     * @throws InterruptedException if a problem occurs during sleeping between checks
+     * @see DiggerClient#buildAll(String, List, long)
+     */
+    public List<BuildStatus> buildAll(JenkinsServer jenkinsServer, String jobName, List<Map<String, String>> parameterSets, long timeout) throws IOException, InterruptedException {
         final long whenToTimeout = System.currentTimeMillis() + timeout;
 
-        LOG.debug("Going to build job with name: {}", jobName);
+        LOG.debug("Going to build job with name: {} {} time(s)", jobName, parameterSets.size());
         LOG.debug("Going to timeout in {} msecs if build didn't start executing", timeout);
 
         JobWithDetails job = jenkinsServer.getJob(jobName);
@@ -94,60 +399,632 @@ public class BuildService {
             throw new IllegalArgumentException("Unable to find job for name '" + jobName + "'");
         }
 
-        final QueueReference queueReference = job.build();
+        final List<PendingBuild> pendingBuilds = new ArrayList<PendingBuild>();
+        try {
+            for (Map<String, String> parameters : parameterSets) {
+                pendingBuilds.add(trigger(job, jobName, parameters));
+            }
+
+            // wait for N seconds, then fetch the queue items.
+            // do it until we have an executable for each of them.
+            // we would have an executable when the build leaves queue and starts building.
+
+            LOG.debug("Going to sleep {} msecs", firstCheckDelay);
+            Thread.sleep(firstCheckDelay);
+
+            awaitExecutables(jenkinsServer, pendingBuilds, whenToTimeout, false);
+        } finally {
+            // also when a later trigger fails, so that the earlier ones can still be cancelled by others on timeout
+            releaseAll(pendingBuilds);
+        }
+
+        final List<BuildStatus> statuses = new ArrayList<BuildStatus>();
+        for (PendingBuild pendingBuild : pendingBuilds) {
+            statuses.add(pendingBuild.status);
+        }
+        return statuses;
+    }
+
+    /**
+     * See the documentation in {@link DiggerClient#resumeBuilds(long)}
+     *
+     * @param jenkinsServer Jenkins server client
+     * @param timeout       timeout
+     * @return the outstanding builds of the journal with their statuses
+     * @throws IOException          if the journal cannot be written or connection problems occur during connecting to Jenkins
+     * @throws InterruptedException if a problem occurs during sleeping between checks
+     * @see DiggerClient#resumeBuilds(long)
+     */
+    public List<TrackedBuild> resumeBuilds(JenkinsServer jenkinsServer, long timeout) throws IOException, InterruptedException {
+        final long whenToTimeout = System.currentTimeMillis() + timeout;
+        if (journal == null) {
+            return Collections.emptyList();
+        }
+
+        final List<PendingBuild> pendingBuilds = new ArrayList<PendingBuild>();
+        synchronized (pendingTriggers) {
+            for (TrackedBuild trackedBuild : journal.getOutstanding()) {
+                pendingBuilds.add(resume(trackedBuild));
+            }
+        }
+        LOG.debug("Resuming {} outstanding builds", pendingBuilds.size());
+
+        try {
+            awaitExecutables(jenkinsServer, pendingBuilds, whenToTimeout, true);
+        } finally {
+            releaseAll(pendingBuilds);
+        }
+
+        final List<TrackedBuild> resumed = new ArrayList<TrackedBuild>();
+        for (PendingBuild pendingBuild : pendingBuilds) {
+            resumed.add(new TrackedBuild(pendingBuild.jobName, pendingBuild.parameters, pendingBuild.queueReference.getQueueItemUrlPart(), pendingBuild.triggerTime, pendingBuild.status));
+        }
+        return resumed;
+    }
+
+    /**
+     * Tracks the outstanding builds of the journal that are still waiting in the queue as pending triggers, the latest
+     * one per job and parameters. Nobody waits for them until a trigger or {@link #resumeBuilds(JenkinsServer, long)}
+     * attaches to them.
+     */
+    private void seedPendingTriggers(BuildJournal journal) {
+        synchronized (pendingTriggers) {
+            for (TrackedBuild trackedBuild : journal.getOutstanding()) {
+                if (trackedBuild.getStatus() != null && trackedBuild.getStatus().getState() != BuildStatus.State.TIMED_OUT) {
+                    continue;
+                }
+                final PendingBuild seeded = newPendingBuild(trackedBuild);
+                seeded.triggerKey = triggerKey(trackedBuild.getJobName(), trackedBuild.getParameters());
+                seeded.waiters = 0;
+                pendingTriggers.put(seeded.triggerKey, seeded);
+            }
+        }
+    }
+
+    /**
+     * Must be called holding the lock of {@link #pendingTriggers}. A resumed build attaches to the pending trigger
+     * seeded for it, so that only the last caller waiting for it cancels it on timeout.
+     */
+    private PendingBuild resume(TrackedBuild trackedBuild) {
+        final PendingBuild pending = pendingTriggers.get(triggerKey(trackedBuild.getJobName(), trackedBuild.getParameters()));
+        if (pending != null && pending.queueReference.getQueueItemUrlPart().equals(trackedBuild.getQueueItemUrl())) {
+            return pending.attach();
+        }
+        return newPendingBuild(trackedBuild);
+    }
+
+    private static PendingBuild newPendingBuild(TrackedBuild trackedBuild) {
+        return new PendingBuild(trackedBuild.getJobName(), trackedBuild.getParameters(), new QueueReference(trackedBuild.getQueueItemUrl()), trackedBuild.getTriggerTime());
+    }
+
+    /**
+     * Jenkins is called outside of the lock of {@link #pendingTriggers}, so a slow trigger holds up only the callers
+     * triggering the same build.
+     */
+    private PendingBuild trigger(JobWithDetails job, String jobName, Map<String, String> parameters) throws IOException, InterruptedException {
+        if (!deduplicateTriggers) {
+            return triggerNew(job, jobName, parameters);
+        }
+        final String triggerKey = triggerKey(jobName, parameters);
+        CountDownLatch triggering;
+        while (true) {
+            final CountDownLatch inFlight;
+            synchronized (pendingTriggers) {
+                forgetExpiredTriggers();
+                final PendingBuild pending = pendingTriggers.get(triggerKey);
+                if (pending != null) {
+                    LOG.debug("Build is already in the queue; attaching to queue item reference: {}", pending.queueReference.getQueueItemUrlPart());
+                    return pending.attach();
+                }
+                inFlight = triggersInFlight.get(triggerKey);
+                if (inFlight == null) {
+                    triggering = new CountDownLatch(1);
+                    triggersInFlight.put(triggerKey, triggering);
+                    break;
+                }
+            }
+            // if that trigger fails, the next round triggers the build again
+            LOG.debug("Build is being triggered by another caller; waiting for its queue item");
+            inFlight.await();
+        }
+        try {
+            final PendingBuild triggered = triggerNew(job, jobName, parameters);
+            triggered.triggerKey = triggerKey;
+            pendingTriggers.put(triggerKey, triggered);
+            return triggered;
+        } finally {
+            synchronized (pendingTriggers) {
+                triggersInFlight.remove(triggerKey);
+            }
+            triggering.countDown();
+        }
+    }
+
+    /**
+     * Whether the job defines parameters, e.g. one created with parameters by
+     * {@link JobService#create(JenkinsServer, String, String, String, Map)}.
+     */
+    private static boolean isParameterized(JobWithDetails job) throws IOException {
+        InputStream inputStream = job.getClient().getFile(URI.create(job.getUrl() + "api/json?tree=property%5BparameterDefinitions%5Bname%5D%5D"));
+        try {
+            for (JsonNode property : MAPPER.readTree(inputStream).path("property")) {
+                if (property.path("parameterDefinitions").size() > 0) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    private void forgetExpiredTriggers() {
+        final long expiredBefore = System.currentTimeMillis() - MAX_PENDING_TRIGGER_AGE;
+        final Iterator<PendingBuild> iterator = pendingTriggers.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().triggerTime < expiredBefore) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static String triggerKey(String jobName, Map<String, String> parameters) {
+        return jobName + new TreeMap<String, String>(parameters);
+    }
+
+    private PendingBuild triggerNew(JobWithDetails job, String jobName, Map<String, String> parameters) throws IOException {
+        final long triggerTime = System.currentTimeMillis();
+        final QueueReference queueReference;
+        if (!parameters.isEmpty() || isParameterized(job)) {
+            // buildWithParameters, Jenkins rejects a plain build of a parameterized job and applies the defaults here
+            queueReference = job.build(parameters);
+        } else {
+            queueReference = job.build();
+        }
         if (queueReference == null) {
             // this is probably an implementation problem we have here
             LOG.debug("Queue reference cannot be null!");
             throw new IllegalStateException("Queue reference cannot be null!");
         }
         LOG.debug("Build triggered; queue item reference: {}", queueReference.getQueueItemUrlPart());
+        if (journal != null) {
+            journal.triggered(jobName, parameters, queueReference.getQueueItemUrlPart(), triggerTime);
+        }
+        return new PendingBuild(jobName, parameters, queueReference, triggerTime);
+    }
+
+    /**
+     * Polls the queue items of all the pending builds in rounds, until each of them has a status or the timeout passes.
+     * <p>
+     * When resuming builds from the journal, queue items Jenkins doesn't know anymore are discarded instead of failing.
+     */
+    private void awaitExecutables(JenkinsServer jenkinsServer, List<PendingBuild> pendingBuilds, long whenToTimeout, boolean resuming) throws IOException, InterruptedException {
+        while (true) {
+            boolean waiting = false;
+            for (PendingBuild pendingBuild : pendingBuilds) {
+                if (pendingBuild.status == null && !pendingBuild.discarded) {
+                    if (resuming) {
+                        resumeQueueItem(jenkinsServer, pendingBuild);
+                    } else {
+                        pollQueueItem(jenkinsServer, pendingBuild);
+                    }
+                    waiting |= pendingBuild.status == null && !pendingBuild.discarded;
+                }
+            }
+            if (!waiting) {
+                return;
+            }
 
-        // wait for N seconds, then fetch the queue item.
-        // do it until we have an executable.
-        // we would have an executable when the build leaves queue and starts building.
+            LOG.debug("Build did not start executing yet.");
+            if (whenToTimeout > System.currentTimeMillis()) {
+                LOG.debug("Timeout period has not exceeded yet. Sleeping for {} msecs", pollPeriod);
+                Thread.sleep(pollPeriod);
+            } else {
+                LOG.debug("Timeout period has exceeded. Returning TIMED_OUT.");
+                for (PendingBuild pendingBuild : pendingBuilds) {
+                    if (pendingBuild.status == null && !pendingBuild.discarded) {
+                        resolve(pendingBuild, new BuildStatus(BuildStatus.State.TIMED_OUT, -1));
+                        if (cancelOnTimeout && release(pendingBuild, true)) {
+                            cancel(pendingBuild);
+                        }
+                    }
+                }
+                return;
+            }
+        }
+    }
 
-        LOG.debug("Going to sleep {} msecs", firstCheckDelay);
-        Thread.sleep(firstCheckDelay);
+    /**
+     * A queue item that cannot be polled may have been purged by Jenkins already, so later triggers must not attach to it.
+     */
+    private void pollQueueItem(JenkinsServer jenkinsServer, PendingBuild pendingBuild) throws IOException {
+        try {
+            resolve(pendingBuild, checkQueueItem(jenkinsServer, pendingBuild));
+        } catch (IOException e) {
+            forgetTrigger(pendingBuild);
+            throw e;
+        } catch (RuntimeException e) {
+            forgetTrigger(pendingBuild);
+            throw e;
+        }
+    }
 
-        QueueItem queueItem;
-        while (true) {
-            queueItem = jenkinsServer.getQueueItem(queueReference);
-            LOG.debug("Queue item : {}", queueItem);
+    private void releaseAll(List<PendingBuild> pendingBuilds) {
+        for (PendingBuild pendingBuild : pendingBuilds) {
+            release(pendingBuild, false);
+        }
+    }
 
-            if (queueItem == null) {
-                // this is probably an implementation problem we have here
-                LOG.debug("Queue item cannot be null!");
-                throw new IllegalStateException("Queue item cannot be null!");
+    /**
+     * Stops waiting for the queue item of a pending build.
+     *
+     * @param forgetIfLast forget the trigger if no other caller waits for the queue item, so that nobody attaches to it anymore
+     * @return whether this was the last caller waiting for the queue item
+     */
+    private boolean release(PendingBuild pendingBuild, boolean forgetIfLast) {
+        synchronized (pendingTriggers) {
+            if (pendingBuild.released) {
+                return false;
+            }
+            pendingBuild.released = true;
+            if (--pendingBuild.origin.waiters > 0) {
+                return false;
+            }
+            if (forgetIfLast) {
+                forgetTrigger(pendingBuild);
             }
+            return true;
+        }
+    }
 
-            LOG.debug("Build item cancelled:{}, blocked:{}, buildable:{}, stuck:{}", queueItem.isCancelled(), queueItem.isBlocked(), queueItem.isBuildable(), queueItem.isStuck());
+    /**
+     * Only a 404 means Jenkins doesn't know the queue item anymore. Other failures, e.g. Jenkins still starting up
+     * after a restart, are rethrown and leave the journal untouched so that resuming can be retried.
+     */
+    private void resumeQueueItem(JenkinsServer jenkinsServer, PendingBuild pendingBuild) throws IOException {
+        try {
+            resolve(pendingBuild, checkQueueItem(jenkinsServer, pendingBuild));
+        } catch (HttpResponseException e) {
+            if (e.getStatusCode() != HttpStatus.SC_NOT_FOUND) {
+                throw e;
+            }
+            LOG.debug("Queue item {} does not exist anymore. Discarding it.", pendingBuild.queueReference.getQueueItemUrlPart());
+            discard(pendingBuild);
+        }
+    }
+
+    private void resolve(PendingBuild pendingBuild, BuildStatus status) throws IOException {
+        pendingBuild.status = status;
+        if (status == null) {
+            return;
+        }
+        if (journal != null) {
+            journal.transition(pendingBuild.queueReference.getQueueItemUrlPart(), status);
+        }
+        if (status.getState() == BuildStatus.State.BUILDING
+            || status.getState() == BuildStatus.State.CANCELLED_IN_QUEUE
+            || status.getState() == BuildStatus.State.STUCK_IN_QUEUE) {
+            forgetTrigger(pendingBuild);
+        }
+    }
 
-            if (queueItem.isCancelled()) {
-                LOG.debug("Queue item is cancelled. Returning CANCELLED_IN_QUEUE");
-                return new BuildStatus(BuildStatus.State.CANCELLED_IN_QUEUE, -1);
-            } else if (queueItem.isStuck()) {
-                LOG.debug("Queue item is stuck. Returning STUCK_IN_QUEUE");
-                return new BuildStatus(BuildStatus.State.STUCK_IN_QUEUE, -1);
+    /**
+     * Cancels the queue item of a timed out build nobody else waits for. The trigger is already forgotten by
+     * {@link #release(PendingBuild, boolean)}. The returned status stays {@link BuildStatus.State#TIMED_OUT}.
+     * <p>
+     * Depending on its version, Jenkins answers a successful cancel with 204 or with a redirect to the previous page.
+     * jenkins-client doesn't follow redirects of POST requests and reports them as {@link HttpResponseException}.
+     */
+    private void cancel(PendingBuild pendingBuild) throws IOException {
+        final QueueItem queueItem = pendingBuild.queueItem;
+        if (queueItem == null || queueItem.getId() == null) {
+            LOG.debug("Queue item {} was never fetched. Cannot cancel it.", pendingBuild.queueReference.getQueueItemUrlPart());
+            keepTrigger(pendingBuild);
+            return;
+        }
+        try {
+            LOG.debug("Cancelling queue item {}", queueItem.getId());
+            queueItem.getClient().post("/queue/cancelItem?id=" + queueItem.getId(), true);
+        } catch (HttpResponseException e) {
+            if (e.getStatusCode() < 300 || e.getStatusCode() >= 400) {
+                LOG.debug("Problem when cancelling queue item {}", queueItem.getId(), e);
+                keepTrigger(pendingBuild);
+                return;
             }
+        } catch (IOException e) {
+            LOG.debug("Problem when cancelling queue item {}", queueItem.getId(), e);
+            keepTrigger(pendingBuild);
+            return;
+        }
+        if (journal != null) {
+            journal.transition(pendingBuild.queueReference.getQueueItemUrlPart(), new BuildStatus(BuildStatus.State.CANCELLED_IN_QUEUE, -1));
+        }
+    }
 
-            // do not return -1 if blocked.
-            // we will wait until it is unblocked.
+    /**
+     * Tracks the trigger of a build that could not be cancelled again, as it may still start later.
+     */
+    private void keepTrigger(PendingBuild pendingBuild) {
+        if (pendingBuild.triggerKey != null) {
+            pendingTriggers.putIfAbsent(pendingBuild.triggerKey, pendingBuild.origin);
+        }
+    }
 
-            final Executable executable = queueItem.getExecutable();
+    private void forgetTrigger(PendingBuild pendingBuild) {
+        if (pendingBuild.triggerKey != null) {
+            pendingTriggers.remove(pendingBuild.triggerKey, pendingBuild.origin);
+        }
+    }
 
-            if (executable != null) {
-                LOG.debug("Build has an executable. Returning build number: {}", executable.getNumber());
-                return new BuildStatus(BuildStatus.State.BUILDING, executable.getNumber().intValue());
-            } else {
-                LOG.debug("Build did not start executing yet.");
-                if (whenToTimeout > System.currentTimeMillis()) {
-                    LOG.debug("Timeout period has not exceeded yet. Sleeping for {} msecs", pollPeriod);
-                    Thread.sleep(pollPeriod);
-                } else {
-                    LOG.debug("Timeout period has exceeded. Returning TIMED_OUT.");
-                    return new BuildStatus(BuildStatus.State.TIMED_OUT, -1);
+    private void discard(PendingBuild pendingBuild) throws IOException {
+        pendingBuild.discarded = true;
+        if (journal != null) {
+            journal.discard(pendingBuild.queueReference.getQueueItemUrlPart());
+        }
+    }
+
+    /**
+     * @return status of the build or {@code null} if it is still waiting in the queue
+     */
+    private BuildStatus checkQueueItem(JenkinsServer jenkinsServer, PendingBuild pendingBuild) throws IOException {
+        final QueueItem queueItem = jenkinsServer.getQueueItem(pendingBuild.queueReference);
+        LOG.debug("Queue item : {}", queueItem);
+        pendingBuild.queueItem = queueItem;
+
+        if (queueItem == null) {
+            // this is probably an implementation problem we have here
+            LOG.debug("Queue item cannot be null!");
+            throw new IllegalStateException("Queue item cannot be null!");
+        }
+
+        LOG.debug("Build item cancelled:{}, blocked:{}, buildable:{}, stuck:{}", queueItem.isCancelled(), queueItem.isBlocked(), queueItem.isBuildable(), queueItem.isStuck());
+
+        if (queueItem.isCancelled()) {
+            LOG.debug("Queue item is cancelled. Returning CANCELLED_IN_QUEUE");
+            return new BuildStatus(BuildStatus.State.CANCELLED_IN_QUEUE, -1);
+        } else if (queueItem.isStuck()) {
+            LOG.debug("Queue item is stuck. Returning STUCK_IN_QUEUE");
+            return new BuildStatus(BuildStatus.State.STUCK_IN_QUEUE, -1);
+        }
+
+        // do not return -1 if blocked.
+        // we will wait until it is unblocked.
+
+        final Executable executable = queueItem.getExecutable();
+        if (executable != null) {
+            LOG.debug("Build has an executable. Returning build number: {}", executable.getNumber());
+            // several callers may wait for the same queue item, whichever sees it start records the wait
+            if (pendingBuild.origin.started.compareAndSet(false, true)) {
+                statsFor(pendingBuild.jobName).queueWait.record(System.currentTimeMillis() - pendingBuild.triggerTime);
+                trackCompletion(jenkinsServer, pendingBuild.jobName, executable.getNumber().intValue());
+            }
+            return new BuildStatus(BuildStatus.State.BUILDING, executable.getNumber().intValue());
+        }
+        return null;
+    }
+
+    private void trackCompletion(JenkinsServer jenkinsServer, String jobName, int buildNumber) {
+        final ScheduledExecutorService scheduler = completionScheduler;
+        if (scheduler != null) {
+            new CompletionCheck(jenkinsServer, jobName, buildNumber, scheduler, completionExecutor).schedule();
+        }
+    }
+
+    /**
+     * Record the duration of a finished build. Durations of builds that are already recorded are ignored.
+     *
+     * @param jobName     name of the job
+     * @param buildNumber job build number
+     * @param duration    duration of the build in milliseconds
+     */
+    public void recordBuildDuration(String jobName, int buildNumber, long duration) {
+        JobStats jobStats = statsFor(jobName);
+        if (jobStats.markRecorded(buildNumber)) {
+            jobStats.buildDuration.record(duration);
+        }
+    }
+
+    /**
+     * Queue wait times are measured from triggering the build until the client sees its executable, so they have
+     * the resolution of {@link #pollPeriod}. Build durations are recorded for the finished builds the client observes,
+     * including every build it saw start when completions are tracked, see
+     * {@link #setCompletionTracking(ScheduledExecutorService, Executor)}. Statistics are kept for the last
+     * {@link #maxStatsJobs} jobs used.
+     *
+     * @param jobName name of the job
+     * @return statistics of the given job
+     */
+    public BuildStats getStats(String jobName) {
+        JobStats jobStats;
+        synchronized (stats) {
+            jobStats = stats.get(jobName);
+        }
+        if (jobStats == null) {
+            return new BuildStats(jobName, new DurationHistogram(), new DurationHistogram());
+        }
+        return new BuildStats(jobName, jobStats.queueWait.copy(), jobStats.buildDuration.copy());
+    }
+
+    /**
+     * @return statistics aggregated over the last {@link #maxStatsJobs} jobs used
+     * @see #getStats(String)
+     */
+    public BuildStats getStats() {
+        DurationHistogram queueWait = new DurationHistogram();
+        DurationHistogram buildDuration = new DurationHistogram();
+        synchronized (stats) {
+            for (JobStats jobStats : stats.values()) {
+                queueWait.add(jobStats.queueWait);
+                buildDuration.add(jobStats.buildDuration);
+            }
+        }
+        return new BuildStats(null, queueWait, buildDuration);
+    }
+
+    private JobStats statsFor(String jobName) {
+        synchronized (stats) {
+            JobStats jobStats = stats.get(jobName);
+            if (jobStats == null) {
+                jobStats = new JobStats();
+                stats.put(jobName, jobStats);
+            }
+            return jobStats;
+        }
+    }
+
+    /**
+     * A triggered build waiting for an executable.
+     */
+    private static class PendingBuild {
+        final String jobName;
+        final Map<String, String> parameters;
+        final QueueReference queueReference;
+        final long triggerTime;
+        /**
+         * The pending build that actually triggered the queue item, this one unless it is attached to an earlier trigger.
+         */
+        final PendingBuild origin;
+        String triggerKey;
+        QueueItem queueItem;
+        BuildStatus status;
+        boolean discarded;
+        /**
+         * Callers waiting for the queue item, counted on the origin. Guarded by {@link #pendingTriggers}.
+         */
+        int waiters;
+        boolean released;
+        /**
+         * Whether a caller saw the queue item start, set on the origin. That caller records the queue wait and
+         * follows the build until it finishes.
+         */
+        final AtomicBoolean started = new AtomicBoolean();
+
+        PendingBuild(String jobName, Map<String, String> parameters, QueueReference queueReference, long triggerTime) {
+            this.jobName = jobName;
+            this.parameters = parameters;
+            this.queueReference = queueReference;
+            this.triggerTime = triggerTime;
+            this.origin = this;
+            this.waiters = 1;
+        }
+
+        private PendingBuild(PendingBuild origin) {
+            this.jobName = origin.jobName;
+            this.parameters = origin.parameters;
+            this.queueReference = origin.queueReference;
+            this.triggerTime = origin.triggerTime;
+            this.triggerKey = origin.triggerKey;
+            this.origin = origin;
+        }
+
+        /**
+         * Must be called holding the lock of {@link #pendingTriggers}.
+         */
+        PendingBuild attach() {
+            waiters++;
+            return new PendingBuild(this);
+        }
+    }
+
+    /**
+     * Checks a build that started executing until it finishes, then records its duration.
+     */
+    private class CompletionCheck implements Runnable {
+        private final JenkinsServer jenkinsServer;
+        private final String jobName;
+        private final int buildNumber;
+        private final ScheduledExecutorService scheduler;
+        private final Executor executor;
+        private Build build;
+        private int consecutiveErrors;
+
+        CompletionCheck(JenkinsServer jenkinsServer, String jobName, int buildNumber, ScheduledExecutorService scheduler, Executor executor) {
+            this.jenkinsServer = jenkinsServer;
+            this.jobName = jobName;
+            this.buildNumber = buildNumber;
+            this.scheduler = scheduler;
+            this.executor = executor;
+        }
+
+        @Override
+        public void run() {
+            if (completionScheduler != scheduler) {
+                return;
+            }
+            try {
+                if (!check()) {
+                    schedule();
                 }
+            } catch (RuntimeException e) {
+                LOG.warn("Stopped following build {} {} after an unexpected problem", jobName, buildNumber, e);
+            }
+        }
+
+        /**
+         * @return whether following the build is done
+         */
+        private boolean check() {
+            try {
+                if (build == null) {
+                    JobWithDetails job = jenkinsServer.getJob(jobName);
+                    build = job == null ? null : job.getBuildByNumber(buildNumber);
+                    if (build == null) {
+                        throw new IOException("Cannot fetch build " + buildNumber + " of job " + jobName);
+                    }
+                }
+                BuildWithDetails details = build.details();
+                consecutiveErrors = 0;
+                if (details.isBuilding()) {
+                    return false;
+                }
+                LOG.debug("Build {} {} finished in {} msecs", jobName, buildNumber, details.getDuration());
+                recordBuildDuration(jobName, buildNumber, details.getDuration());
+                return true;
+            } catch (IOException e) {
+                LOG.debug("Problem when checking whether build {} {} finished", jobName, buildNumber, e);
+                if (++consecutiveErrors >= MAX_COMPLETION_ERRORS) {
+                    LOG.debug("Giving up following build {} {}", jobName, buildNumber);
+                    return true;
+                }
+                return false;
+            }
+        }
+
+        void schedule() {
+            try {
+                scheduler.schedule(executor == null ? this : new Runnable() {
+                    @Override
+                    public void run() {
+                        submit();
+                    }
+                }, COMPLETION_POLL_PERIOD, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                LOG.debug("Stopped following build {} {}, the scheduler is shut down", jobName, buildNumber);
+            }
+        }
+
+        private void submit() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                LOG.debug("Stopped following build {} {}, the executor is shut down", jobName, buildNumber);
+            }
+        }
+    }
+
+    private static class JobStats {
+        final DurationHistogram queueWait = new DurationHistogram();
+        final DurationHistogram buildDuration = new DurationHistogram();
+        private final Set<Integer> recordedBuilds = new LinkedHashSet<Integer>();
+
+        synchronized boolean markRecorded(int buildNumber) {
+            if (!recordedBuilds.add(buildNumber)) {
+                return false;
+            }
+            if (recordedBuilds.size() > MAX_RECORDED_BUILDS) {
+                recordedBuilds.remove(recordedBuilds.iterator().next());
             }
+            return true;
         }
     }
 }
@@ -5,6 +5,10 @@ import org.jtwig.JtwigModel;
 import org.jtwig.JtwigTemplate;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Create digger job on jenkins platform
@@ -13,8 +17,20 @@ public class JobService {
 
     private final static String GIT_REPO_URL = "GIT_REPO_URL";
     private final static String GIT_REPO_BRANCH = "GIT_REPO_BRANCH";
+    private final static String HAS_PARAMETERS = "HAS_PARAMETERS";
+    private final static String PARAMETERS = "PARAMETERS";
     private static final String JOB_TEMPLATE_PATH = "templates/job.xml";
 
+    private volatile JtwigTemplate template;
+
+    /**
+     * Initializes the template engine and compiles the job template ahead of the first {@link #create} call,
+     * by rendering it once.
+     */
+    public void warmUp() {
+        getTemplate().render(model("warm-up", "warm-up", Collections.singletonMap("WARM_UP", "")));
+    }
+
     /**
      * Create new digger job on jenkins platform
      *
@@ -24,8 +40,66 @@ public class JobService {
      * @param gitBranch     git repository branch (default branch used to checkout source code)
      */
     public void create(JenkinsServer jenkinsServer, String name, String gitRepo, String gitBranch) throws IOException {
-        JtwigTemplate template = JtwigTemplate.classpathTemplate(JOB_TEMPLATE_PATH);
-        JtwigModel model = JtwigModel.newModel().with(GIT_REPO_URL, gitRepo).with(GIT_REPO_BRANCH, gitBranch);
-        jenkinsServer.createJob(name, template.render(model));
+        create(jenkinsServer, name, gitRepo, gitBranch, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Create new digger job with string parameters on jenkins platform
+     *
+     * @param jenkinsServer Jenkins server client
+     * @param name          job name that can be used later to reference job
+     * @param gitRepo       git repository url (full git repository url. e.g git@github.com:digger/helloworld.git
+     * @param gitBranch     git repository branch (default branch used to checkout source code)
+     * @param parameters    names of the job parameters mapped to their default values
+     */
+    public void create(JenkinsServer jenkinsServer, String name, String gitRepo, String gitBranch, Map<String, String> parameters) throws IOException {
+        jenkinsServer.createJob(name, getTemplate().render(model(gitRepo, gitBranch, parameters)));
+    }
+
+    private JtwigTemplate getTemplate() {
+        if (template == null) {
+            template = JtwigTemplate.classpathTemplate(JOB_TEMPLATE_PATH);
+        }
+        return template;
+    }
+
+    private static JtwigModel model(String gitRepo, String gitBranch, Map<String, String> parameters) {
+        List<Parameter> parameterModels = new ArrayList<Parameter>();
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            parameterModels.add(new Parameter(escapeXml(parameter.getKey()), escapeXml(parameter.getValue())));
+        }
+        return JtwigModel.newModel()
+            .with(GIT_REPO_URL, gitRepo)
+            .with(GIT_REPO_BRANCH, gitBranch)
+            .with(HAS_PARAMETERS, !parameterModels.isEmpty())
+            .with(PARAMETERS, parameterModels);
+    }
+
+    private static String escapeXml(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;").replace("'", "&apos;");
+    }
+
+    /**
+     * Job parameter as rendered by the job template.
+     */
+    public static class Parameter {
+        private final String name;
+        private final String defaultValue;
+
+        Parameter(String name, String defaultValue) {
+            this.name = name;
+            this.defaultValue = defaultValue;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDefaultValue() {
+            return defaultValue;
+        }
     }
 }
@@ -0,0 +1,331 @@
+package org.aerogear.digger.client.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.offbytwo.jenkins.JenkinsServer;
+import com.offbytwo.jenkins.client.JenkinsHttpClient;
+import com.offbytwo.jenkins.model.JobWithDetails;
+import org.aerogear.digger.client.model.PipelineRun;
+import org.aerogear.digger.client.model.PipelineStage;
+import org.aerogear.digger.client.util.DaemonThreadFactory;
+import org.aerogear.digger.client.util.DiggerClientException;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provides the stage progress of pipeline builds using the Pipeline REST API ({@code wfapi/describe}).
+ **/
+public class PipelineService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PipelineService.class);
+
+    /**
+     * Default value of {@link #pollPeriod}
+     */
+    public static final long DEFAULT_POLL_PERIOD = 2 * 1000L;
+
+    /**
+     * Watching a build stops after fetching its stages failed this many times in a row.
+     */
+    public static final int MAX_CONSECUTIVE_ERRORS = 10;
+
+    /**
+     * Default value of {@link #maxCachedRuns}
+     */
+    public static final int DEFAULT_MAX_CACHED_RUNS = 64;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final ScheduledExecutorService scheduler;
+    private final Executor executor;
+    private final long pollPeriod;
+
+    /**
+     * Number of finished builds whose stages are kept in memory.
+     */
+    private final int maxCachedRuns;
+
+    private final Map<String, PipelineRun> finishedRuns = new LinkedHashMap<String, PipelineRun>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PipelineRun> eldest) {
+            return size() > maxCachedRuns;
+        }
+    };
+
+    /**
+     * Uses threads of its own, which are never shut down. Clients built without a pipeline service use the threads of
+     * the client instead, released by {@link org.aerogear.digger.client.DiggerClient#close()}.
+     */
+    public PipelineService() {
+        this(Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("digger-pipeline")), DEFAULT_POLL_PERIOD);
+    }
+
+    /**
+     * @param scheduler  scheduler used to poll watched builds
+     * @param pollPeriod how long should we wait (in milliseconds) before checking the stages of a watched build for next time
+     */
+    public PipelineService(ScheduledExecutorService scheduler, long pollPeriod) {
+        this(scheduler, null, pollPeriod);
+    }
+
+    /**
+     * Polls watched builds on the given executor, so that a few scheduler threads can serve many watches
+     * even when Jenkins is slow to answer.
+     *
+     * @param scheduler  scheduler used to time the polls of watched builds
+     * @param executor   executor used to fetch the stages of watched builds, or null to fetch on the scheduler
+     * @param pollPeriod how long should we wait (in milliseconds) before checking the stages of a watched build for next time
+     */
+    public PipelineService(ScheduledExecutorService scheduler, Executor executor, long pollPeriod) {
+        this(scheduler, executor, pollPeriod, DEFAULT_MAX_CACHED_RUNS);
+    }
+
+    /**
+     * @param scheduler     scheduler used to time the polls of watched builds
+     * @param executor      executor used to fetch the stages of watched builds, or null to fetch on the scheduler
+     * @param pollPeriod    how long should we wait (in milliseconds) before checking the stages of a watched build for next time
+     * @param maxCachedRuns number of finished builds whose stages are kept in memory
+     */
+    public PipelineService(ScheduledExecutorService scheduler, Executor executor, long pollPeriod, int maxCachedRuns) {
+        this.scheduler = scheduler;
+        this.executor = executor;
+        this.pollPeriod = pollPeriod;
+        this.maxCachedRuns = maxCachedRuns;
+    }
+
+    /**
+     * Get the pipeline build with its stages for specific job and build number.
+     * Stages of finished builds never change, so they are fetched only once.
+     *
+     * @param jobName     name of the job
+     * @param buildNumber job build number
+     * @return the pipeline build
+     * @throws DiggerClientException when problem with fetching stages from jenkins
+     */
+    public PipelineRun getPipelineRun(JenkinsServer jenkins, String jobName, int buildNumber) throws DiggerClientException {
+        PipelineRun run = getFinishedRun(jobName, buildNumber);
+        if (run != null) {
+            return run;
+        }
+        JobWithDetails job = getJob(jenkins, jobName);
+        try {
+            run = fetchRun(job.getClient(), describeUri(job, buildNumber));
+        } catch (IOException e) {
+            LOG.error("Problem when fetching stages for {} {}", jobName, buildNumber, e);
+            throw new DiggerClientException(e);
+        }
+        cacheIfFinished(jobName, buildNumber, run);
+        return run;
+    }
+
+    /**
+     * Watch the stages of specific job and build number until the build finishes.
+     * <p>
+     * The listener first receives all the stages, then only the stages that appear or change their status.
+     * Finished builds are not polled: the listener receives their stages and completion right away.
+     *
+     * @param jobName     name of the job
+     * @param buildNumber job build number
+     * @param listener    listener receiving the stage updates
+     * @return handle to stop watching
+     * @throws DiggerClientException when problem with fetching job from jenkins
+     */
+    public StageWatch watchStages(JenkinsServer jenkins, String jobName, int buildNumber, StageListener listener) throws DiggerClientException {
+        JobWithDetails job = getJob(jenkins, jobName);
+        StageWatch watch = new StageWatch(job.getClient(), describeUri(job, buildNumber), jobName, buildNumber, listener);
+        watch.schedule(0);
+        return watch;
+    }
+
+    private JobWithDetails getJob(JenkinsServer jenkins, String jobName) throws DiggerClientException {
+        try {
+            JobWithDetails job = jenkins.getJob(jobName);
+            if (job == null) {
+                LOG.error("Cannot fetch job from jenkins {}", jobName);
+                throw new DiggerClientException("Cannot fetch job from jenkins");
+            }
+            return job;
+        } catch (IOException e) {
+            LOG.error("Problem when fetching job {}", jobName, e);
+            throw new DiggerClientException(e);
+        }
+    }
+
+    private static URI describeUri(JobWithDetails job, int buildNumber) {
+        return URI.create(job.getUrl() + buildNumber + "/wfapi/describe");
+    }
+
+    private PipelineRun getFinishedRun(String jobName, int buildNumber) {
+        synchronized (finishedRuns) {
+            return finishedRuns.get(jobName + "#" + buildNumber);
+        }
+    }
+
+    /**
+     * Keyed on the requested build number, the id in the response may be missing.
+     */
+    private void cacheIfFinished(String jobName, int buildNumber, PipelineRun run) {
+        if (run.getStatus().isFinished()) {
+            synchronized (finishedRuns) {
+                finishedRuns.put(jobName + "#" + buildNumber, run);
+            }
+        }
+    }
+
+    private static PipelineRun fetchRun(JenkinsHttpClient client, URI describeUri) throws IOException {
+        InputStream inputStream = client.getFile(describeUri);
+        JsonNode root;
+        try {
+            root = MAPPER.readTree(inputStream);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+        List<PipelineStage> stages = new ArrayList<PipelineStage>();
+        for (JsonNode stage : root.path("stages")) {
+            stages.add(new PipelineStage(
+                stage.path("id").asText(),
+                stage.path("name").asText(),
+                PipelineStage.Status.parse(stage.path("status").asText()),
+                stage.path("startTimeMillis").asLong(),
+                stage.path("durationMillis").asLong()));
+        }
+        return new PipelineRun(
+            root.path("id").asInt(),
+            PipelineStage.Status.parse(root.path("status").asText()),
+            root.path("durationMillis").asLong(),
+            stages);
+    }
+
+    /**
+     * Polls the stages of a build and reports the changes to a listener, until the build finishes or the watch is cancelled.
+     */
+    public class StageWatch implements Runnable {
+        private final JenkinsHttpClient client;
+        private final URI describeUri;
+        private final String jobName;
+        private final int buildNumber;
+        private final StageListener listener;
+
+        private final Map<String, PipelineStage.Status> reported = new HashMap<String, PipelineStage.Status>();
+        private int consecutiveErrors;
+        private volatile boolean cancelled;
+        private volatile boolean done;
+        private volatile ScheduledFuture<?> next;
+
+        StageWatch(JenkinsHttpClient client, URI describeUri, String jobName, int buildNumber, StageListener listener) {
+            this.client = client;
+            this.describeUri = describeUri;
+            this.jobName = jobName;
+            this.buildNumber = buildNumber;
+            this.listener = listener;
+        }
+
+        /**
+         * Stops watching. The listener may still receive the update of a poll that is in progress.
+         */
+        public void cancel() {
+            cancelled = true;
+            ScheduledFuture<?> scheduled = next;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+        }
+
+        /**
+         * @return whether watching is stopped, because the build finished, fetching failed or the watch was cancelled
+         */
+        public boolean isDone() {
+            return done || cancelled;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            try {
+                poll();
+            } catch (Throwable e) {
+                // most likely thrown by the listener; rescheduling would only repeat it
+                LOG.warn("Stopped watching stages for {} {} after an unexpected problem", jobName, buildNumber, e);
+                done = true;
+            }
+        }
+
+        private void poll() {
+            PipelineRun run = getFinishedRun(jobName, buildNumber);
+            if (run == null) {
+                try {
+                    run = fetchRun(client, describeUri);
+                    consecutiveErrors = 0;
+                } catch (IOException e) {
+                    LOG.debug("Problem when fetching stages for {} {}", jobName, buildNumber, e);
+                    if (++consecutiveErrors >= MAX_CONSECUTIVE_ERRORS) {
+                        LOG.debug("Giving up watching stages for {} {}", jobName, buildNumber);
+                        done = true;
+                        listener.onGaveUp(jobName, buildNumber, e);
+                        return;
+                    }
+                    listener.onError(jobName, buildNumber, e);
+                    schedule(pollPeriod);
+                    return;
+                }
+                cacheIfFinished(jobName, buildNumber, run);
+            }
+
+            List<PipelineStage> changed = new ArrayList<PipelineStage>();
+            for (PipelineStage stage : run.getStages()) {
+                if (stage.getStatus() != reported.get(stage.getId())) {
+                    reported.put(stage.getId(), stage.getStatus());
+                    changed.add(stage);
+                }
+            }
+            if (!changed.isEmpty()) {
+                listener.onStagesChanged(jobName, buildNumber, changed);
+            }
+
+            if (run.getStatus().isFinished()) {
+                done = true;
+                listener.onCompleted(jobName, buildNumber, run);
+            } else {
+                schedule(pollPeriod);
+            }
+        }
+
+        void schedule(long delay) {
+            if (!cancelled && !done) {
+                next = scheduler.schedule(executor == null ? this : new Runnable() {
+                    @Override
+                    public void run() {
+                        submit();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void submit() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                LOG.debug("Stopped watching stages for {} {}, the executor is shut down", jobName, buildNumber);
+                done = true;
+            }
+        }
+    }
+}
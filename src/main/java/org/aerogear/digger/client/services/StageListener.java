@@ -0,0 +1,55 @@
+package org.aerogear.digger.client.services;
+
+import org.aerogear.digger.client.model.PipelineRun;
+import org.aerogear.digger.client.model.PipelineStage;
+
+import java.util.List;
+
+/**
+ * Receives the stage updates of a watched pipeline build.
+ * <p>
+ * Callbacks are invoked one at a time from the thread polling the build: a thread of the executor of the
+ * {@link PipelineService} when it has one, its scheduler thread otherwise.
+ * If a callback throws, watching stops and no more callbacks follow.
+ *
+ * @see PipelineService#watchStages(com.offbytwo.jenkins.JenkinsServer, String, int, StageListener)
+ */
+public interface StageListener {
+
+    /**
+     * Called with the stages that appeared or changed their status since the previous call.
+     *
+     * @param jobName     name of the job
+     * @param buildNumber job build number
+     * @param changed     changed stages in execution order
+     */
+    void onStagesChanged(String jobName, int buildNumber, List<PipelineStage> changed);
+
+    /**
+     * Called once when the build is finished. No more callbacks follow.
+     *
+     * @param jobName     name of the job
+     * @param buildNumber job build number
+     * @param run         final state of the build
+     */
+    void onCompleted(String jobName, int buildNumber, PipelineRun run);
+
+    /**
+     * Called when the stages cannot be fetched. Watching continues with the next poll.
+     *
+     * @param jobName     name of the job
+     * @param buildNumber job build number
+     * @param e           the problem
+     */
+    void onError(String jobName, int buildNumber, Exception e);
+
+    /**
+     * Called once instead of {@link #onError(String, int, Exception)} when fetching the stages failed
+     * {@link PipelineService#MAX_CONSECUTIVE_ERRORS} times in a row. Watching stops, no more callbacks follow.
+     *
+     * @param jobName     name of the job
+     * @param buildNumber job build number
+     * @param e           the last problem
+     */
+    void onGaveUp(String jobName, int buildNumber, Exception e);
+}
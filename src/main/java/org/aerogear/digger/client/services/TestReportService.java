@@ -0,0 +1,177 @@
+package org.aerogear.digger.client.services;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.offbytwo.jenkins.JenkinsServer;
+import com.offbytwo.jenkins.model.JobWithDetails;
+import org.aerogear.digger.client.model.TestCaseResult;
+import org.aerogear.digger.client.util.DiggerClientException;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Provides the test results of builds using the JUnit test report ({@code testReport/api/json}).
+ * <p>
+ * Reports are parsed while they are downloaded, one test case at a time, so memory use doesn't depend on the
+ * number of test cases in the report.
+ **/
+public class TestReportService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TestReportService.class);
+
+    /**
+     * Fields of the test cases fetched from Jenkins. Leaves out the captured output of the tests, which can be
+     * bigger than the rest of the report.
+     */
+    private static final String TREE = "suites[cases[className,name,status,duration,errorDetails,errorStackTrace]]";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * See the documentation in {@link org.aerogear.digger.client.DiggerClient#streamTestReport(String, int, boolean)}
+     *
+     * @param jenkins      Jenkins server client
+     * @param jobName      name of the job
+     * @param buildNumber  job build number
+     * @param failuresOnly return only the failed test cases
+     * @return iterator over the test cases, to be closed by the caller
+     * @throws DiggerClientException when problem with fetching the test report from jenkins
+     */
+    public TestCaseIterator streamTestReport(JenkinsServer jenkins, String jobName, int buildNumber, boolean failuresOnly) throws DiggerClientException {
+        InputStream inputStream = null;
+        try {
+            JobWithDetails job = jenkins.getJob(jobName);
+            if (job == null) {
+                LOG.error("Cannot fetch job from jenkins {}", jobName);
+                throw new DiggerClientException("Cannot fetch job from jenkins");
+            }
+            URI reportUri = URI.create(job.getUrl() + buildNumber + "/testReport/api/json?tree=" + URLEncoder.encode(TREE, "UTF-8"));
+            inputStream = job.getClient().getFile(reportUri);
+            return new TestCaseIterator(inputStream, failuresOnly);
+        } catch (IOException e) {
+            IOUtils.closeQuietly(inputStream);
+            LOG.error("Problem when fetching test report for {} {}", jobName, buildNumber, e);
+            throw new DiggerClientException(e);
+        }
+    }
+
+    /**
+     * Iterates over the test cases of a test report while parsing it. The report stream is closed when the last
+     * test case is read, when parsing fails or when the iterator is closed.
+     * <p>
+     * Problems while reading the report are thrown as {@link IllegalStateException}.
+     */
+    public static class TestCaseIterator implements Iterator<TestCaseResult>, Closeable {
+        private final InputStream inputStream;
+        private final JsonParser parser;
+        private final boolean failuresOnly;
+
+        private boolean inCases;
+        private boolean done;
+        private TestCaseResult next;
+
+        TestCaseIterator(InputStream inputStream, boolean failuresOnly) throws IOException {
+            this.inputStream = inputStream;
+            this.parser = MAPPER.getFactory().createParser(inputStream);
+            this.failuresOnly = failuresOnly;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !done) {
+                try {
+                    next = advance();
+                } catch (IOException e) {
+                    close();
+                    throw new IllegalStateException("Cannot read test report from jenkins", e);
+                }
+                if (next == null) {
+                    close();
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public TestCaseResult next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            TestCaseResult result = next;
+            next = null;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            done = true;
+            try {
+                parser.close();
+            } catch (IOException e) {
+                LOG.debug("Cannot close test report parser", e);
+            }
+            IOUtils.closeQuietly(inputStream);
+        }
+
+        /**
+         * Reads tokens up to the next matching test case, i.e. an element of a {@code cases} array.
+         *
+         * @return the test case, {@code null} at the end of the report
+         */
+        private TestCaseResult advance() throws IOException {
+            while (true) {
+                JsonToken token = parser.nextToken();
+                if (token == null) {
+                    return null;
+                }
+                if (inCases) {
+                    if (token == JsonToken.START_OBJECT) {
+                        JsonNode node = parser.readValueAsTree();
+                        TestCaseResult result = toResult(node);
+                        if (!failuresOnly || result.getStatus().isFailure()) {
+                            return result;
+                        }
+                    } else {
+                        inCases = false;
+                    }
+                } else if (token == JsonToken.FIELD_NAME && "cases".equals(parser.getCurrentName())) {
+                    if (parser.nextToken() == JsonToken.START_ARRAY) {
+                        inCases = true;
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+        }
+
+        private static TestCaseResult toResult(JsonNode node) {
+            return new TestCaseResult(
+                textOrNull(node.path("className")),
+                textOrNull(node.path("name")),
+                TestCaseResult.Status.parse(node.path("status").asText()),
+                Math.round(node.path("duration").asDouble() * 1000),
+                textOrNull(node.path("errorDetails")),
+                textOrNull(node.path("errorStackTrace")));
+        }
+
+        private static String textOrNull(JsonNode node) {
+            return node.isMissingNode() || node.isNull() ? null : node.asText();
+        }
+    }
+}
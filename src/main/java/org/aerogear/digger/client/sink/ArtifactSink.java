@@ -0,0 +1,46 @@
+package org.aerogear.digger.client.sink;
+
+import java.io.IOException;
+
+/**
+ * Destination of an artifact that is streamed from Jenkins.
+ * <p>
+ * The sink receives the artifact as a sequence of chunks. Every chunk except the last one has exactly the chunk size
+ * the {@link org.aerogear.digger.client.services.ArtifactsService} is configured with, so that implementations
+ * like multipart uploads can map one chunk to one part.
+ * <p>
+ * Lifecycle is {@link #open(String)}, any number of {@link #write(byte[], int, int)} calls and then either
+ * {@link #complete()} or {@link #abort()}.
+ */
+public interface ArtifactSink {
+
+    /**
+     * Called once before the first chunk is written.
+     *
+     * @param artifactName name of the artifact that is streamed
+     * @throws IOException when the sink cannot be prepared
+     */
+    void open(String artifactName) throws IOException;
+
+    /**
+     * Write the next chunk of the artifact. The buffer is reused after this method returns.
+     *
+     * @param buffer buffer holding the chunk
+     * @param offset offset of the chunk in the buffer
+     * @param length length of the chunk
+     * @throws IOException when the chunk cannot be written
+     */
+    void write(byte[] buffer, int offset, int length) throws IOException;
+
+    /**
+     * Called once all the chunks are written successfully.
+     *
+     * @throws IOException when the artifact cannot be finalized
+     */
+    void complete() throws IOException;
+
+    /**
+     * Called when streaming failed. Implementations should release resources and discard partial data.
+     */
+    void abort();
+}
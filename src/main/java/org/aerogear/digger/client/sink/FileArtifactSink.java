@@ -0,0 +1,58 @@
+package org.aerogear.digger.client.sink;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the artifact to a local file.
+ * <p>
+ * Data is written to a temporary file next to the target which is renamed on completion, so the target file
+ * never contains a partial artifact.
+ */
+public class FileArtifactSink implements ArtifactSink {
+
+    private final File outputFile;
+    private File partFile;
+    private OutputStream outputStream;
+
+    /**
+     * @param outputFile file (location) used to save artifact
+     */
+    public FileArtifactSink(File outputFile) {
+        this.outputFile = outputFile;
+    }
+
+    @Override
+    public void open(String artifactName) throws IOException {
+        partFile = new File(outputFile.getAbsoluteFile().getParentFile(), outputFile.getName() + ".part");
+        outputStream = new FileOutputStream(partFile);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        outputStream.write(buffer, offset, length);
+    }
+
+    @Override
+    public void complete() throws IOException {
+        outputStream.close();
+        if (outputFile.exists() && !outputFile.delete()) {
+            throw new IOException("Cannot replace " + outputFile);
+        }
+        if (!partFile.renameTo(outputFile)) {
+            throw new IOException("Cannot move " + partFile + " to " + outputFile);
+        }
+    }
+
+    @Override
+    public void abort() {
+        IOUtils.closeQuietly(outputStream);
+        if (partFile != null) {
+            partFile.delete();
+        }
+    }
+}
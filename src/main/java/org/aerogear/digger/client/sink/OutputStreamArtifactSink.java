@@ -0,0 +1,50 @@
+package org.aerogear.digger.client.sink;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the artifact to an {@link OutputStream}.
+ * <p>
+ * The stream is flushed on completion and closed only if the sink is created with {@code closeStream} set.
+ */
+public class OutputStreamArtifactSink implements ArtifactSink {
+
+    private final OutputStream outputStream;
+    private final boolean closeStream;
+
+    /**
+     * @param outputStream stream to write the artifact to
+     * @param closeStream  whether the stream should be closed when the sink is completed or aborted
+     */
+    public OutputStreamArtifactSink(OutputStream outputStream, boolean closeStream) {
+        this.outputStream = outputStream;
+        this.closeStream = closeStream;
+    }
+
+    @Override
+    public void open(String artifactName) throws IOException {
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        outputStream.write(buffer, offset, length);
+    }
+
+    @Override
+    public void complete() throws IOException {
+        outputStream.flush();
+        if (closeStream) {
+            outputStream.close();
+        }
+    }
+
+    @Override
+    public void abort() {
+        if (closeStream) {
+            IOUtils.closeQuietly(outputStream);
+        }
+    }
+}
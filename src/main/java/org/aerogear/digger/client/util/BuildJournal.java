@@ -0,0 +1,278 @@
+package org.aerogear.digger.client.util;
+
+import org.aerogear.digger.client.model.BuildStatus;
+import org.aerogear.digger.client.model.TrackedBuild;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped journal of the builds triggered by the client.
+ * <p>
+ * Every trigger and every status change of a queue item is appended as a record, triggers with their build
+ * parameters. When the journal is opened, the records are replayed so that builds which were still waiting in the
+ * queue when the previous process stopped can be watched again instead of being triggered a second time.
+ * <p>
+ * A record is written as {@code [length][crc][payload]} with the length written last, so a record torn by a crash
+ * is ignored on replay. The journal is compacted to the outstanding builds when it is opened and when it is full.
+ * <p>
+ * Instances are thread safe. A journal file must not be shared by two open journals.
+ */
+public class BuildJournal implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BuildJournal.class);
+
+    private static final int MAGIC = 0x44474a31; // DGJ1
+    private static final int HEADER_SIZE = 4;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    private static final byte TRIGGERED = 1;
+    private static final byte STATUS = 2;
+    private static final byte DISCARDED = 3;
+
+    private final File file;
+    private final Map<String, TrackedBuild> outstanding = new LinkedHashMap<String, TrackedBuild>();
+    private MappedByteBuffer buffer;
+
+    /**
+     * Opens the journal, creating the file if it doesn't exist, and replays its records.
+     *
+     * @param file journal file
+     * @throws IOException if the journal file cannot be read or written
+     */
+    public BuildJournal(File file) throws IOException {
+        this.file = file;
+        if (file.exists()) {
+            replay();
+        }
+        compact(INITIAL_CAPACITY);
+        LOG.debug("Build journal {} opened with {} outstanding builds", file, outstanding.size());
+    }
+
+    /**
+     * Records a triggered build.
+     *
+     * @param jobName      name of the job
+     * @param parameters   build parameters, empty for a build without parameters
+     * @param queueItemUrl url of the queue item of the build
+     * @param triggerTime  when the build was triggered, in milliseconds since epoch
+     * @throws IOException if the journal cannot be written
+     */
+    public synchronized void triggered(String jobName, Map<String, String> parameters, String queueItemUrl, long triggerTime) throws IOException {
+        TrackedBuild build = new TrackedBuild(jobName, parameters, queueItemUrl, triggerTime, null);
+        append(record(TRIGGERED, build));
+        outstanding.put(queueItemUrl, build);
+    }
+
+    /**
+     * Records the status of a triggered build. Builds that are building or cancelled are not outstanding anymore.
+     *
+     * @param queueItemUrl url of the queue item of the build
+     * @param status       status of the build
+     * @throws IOException if the journal cannot be written
+     */
+    public synchronized void transition(String queueItemUrl, BuildStatus status) throws IOException {
+        TrackedBuild build = outstanding.get(queueItemUrl);
+        if (build == null) {
+            return;
+        }
+        TrackedBuild updated = new TrackedBuild(build.getJobName(), build.getParameters(), queueItemUrl, build.getTriggerTime(), status);
+        append(record(STATUS, updated));
+        if (isOutstanding(status)) {
+            outstanding.put(queueItemUrl, updated);
+        } else {
+            outstanding.remove(queueItemUrl);
+        }
+    }
+
+    /**
+     * Stops tracking a build, e.g. because Jenkins doesn't know its queue item anymore.
+     *
+     * @param queueItemUrl url of the queue item of the build
+     * @throws IOException if the journal cannot be written
+     */
+    public synchronized void discard(String queueItemUrl) throws IOException {
+        TrackedBuild build = outstanding.remove(queueItemUrl);
+        if (build != null) {
+            append(record(DISCARDED, build));
+        }
+    }
+
+    /**
+     * @return builds that were triggered but have not started executing or been cancelled yet, oldest first
+     */
+    public synchronized List<TrackedBuild> getOutstanding() {
+        return new ArrayList<TrackedBuild>(outstanding.values());
+    }
+
+    @Override
+    public synchronized void close() {
+        if (buffer != null) {
+            buffer.force();
+            buffer = null;
+        }
+    }
+
+    private static boolean isOutstanding(BuildStatus status) {
+        return status == null
+            || status.getState() == BuildStatus.State.TIMED_OUT
+            || status.getState() == BuildStatus.State.STUCK_IN_QUEUE;
+    }
+
+    private void append(byte[] record) throws IOException {
+        if (buffer == null) {
+            throw new IOException("Build journal " + file + " is closed");
+        }
+        if (buffer.remaining() < RECORD_HEADER_SIZE + record.length + 4) {
+            compact(Math.max(buffer.capacity(), RECORD_HEADER_SIZE + record.length + HEADER_SIZE + 4));
+        }
+        write(buffer, record);
+    }
+
+    /**
+     * Writes the record followed by the end marker. The length goes last, so a torn record reads as the end of the journal.
+     */
+    private static void write(MappedByteBuffer target, byte[] record) {
+        int start = target.position();
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        target.position(start + RECORD_HEADER_SIZE);
+        target.put(record);
+        target.putInt(target.position(), 0);
+        target.putInt(start + 4, (int) crc.getValue());
+        target.putInt(start, record.length);
+    }
+
+    private void replay() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC) {
+                LOG.warn("Ignoring build journal {} with unknown format", file);
+                return;
+            }
+            int records = 0;
+            while (raf.getFilePointer() + RECORD_HEADER_SIZE <= raf.length()) {
+                int length = raf.readInt();
+                int checksum = raf.readInt();
+                if (length <= 0 || raf.getFilePointer() + length > raf.length()) {
+                    break;
+                }
+                byte[] record = new byte[length];
+                raf.readFully(record);
+                CRC32 crc = new CRC32();
+                crc.update(record);
+                if ((int) crc.getValue() != checksum) {
+                    LOG.warn("Build journal {} has a corrupt record after {} records, ignoring the rest", file, records);
+                    break;
+                }
+                apply(record);
+                records++;
+            }
+            LOG.debug("Replayed {} records of build journal {}", records, file);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void apply(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte kind = in.readByte();
+        long triggerTime = in.readLong();
+        String jobName = in.readUTF();
+        String queueItemUrl = in.readUTF();
+        String state = in.readUTF();
+        int buildNumber = in.readInt();
+        BuildStatus status = state.length() == 0 ? null : new BuildStatus(BuildStatus.State.valueOf(state), buildNumber);
+        Map<String, String> parameters = new LinkedHashMap<String, String>();
+        for (int i = in.readInt(); i > 0; i--) {
+            parameters.put(in.readUTF(), in.readUTF());
+        }
+
+        if (kind == TRIGGERED) {
+            outstanding.put(queueItemUrl, new TrackedBuild(jobName, parameters, queueItemUrl, triggerTime, null));
+        } else if (kind == STATUS && isOutstanding(status)) {
+            if (outstanding.containsKey(queueItemUrl)) {
+                outstanding.put(queueItemUrl, new TrackedBuild(jobName, parameters, queueItemUrl, triggerTime, status));
+            }
+        } else {
+            outstanding.remove(queueItemUrl);
+        }
+    }
+
+    private static byte[] record(byte kind, TrackedBuild build) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(kind);
+        out.writeLong(build.getTriggerTime());
+        out.writeUTF(build.getJobName());
+        out.writeUTF(build.getQueueItemUrl());
+        out.writeUTF(build.getStatus() == null ? "" : build.getStatus().getState().name());
+        out.writeInt(build.getStatus() == null ? -1 : build.getStatus().getBuildNumber());
+        out.writeInt(build.getParameters().size());
+        for (Map.Entry<String, String> parameter : build.getParameters().entrySet()) {
+            out.writeUTF(parameter.getKey());
+            out.writeUTF(parameter.getValue());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Rewrites the journal with the outstanding builds only into a new file which then replaces the journal.
+     * The capacity is doubled until the outstanding builds take at most half of it.
+     */
+    private void compact(int minCapacity) throws IOException {
+        List<byte[]> records = new ArrayList<byte[]>();
+        int size = HEADER_SIZE + 4;
+        for (TrackedBuild build : outstanding.values()) {
+            // replay needs the trigger before the status
+            records.add(record(TRIGGERED, build));
+            if (build.getStatus() != null) {
+                records.add(record(STATUS, build));
+            }
+        }
+        for (byte[] record : records) {
+            size += RECORD_HEADER_SIZE + record.length;
+        }
+        int capacity = minCapacity;
+        while (capacity < size * 2) {
+            capacity *= 2;
+        }
+
+        File compacted = new File(file.getPath() + ".compact");
+        RandomAccessFile raf = new RandomAccessFile(compacted, "rw");
+        try {
+            raf.setLength(0);
+            raf.setLength(capacity);
+            MappedByteBuffer target = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            target.putInt(MAGIC);
+            target.putInt(target.position(), 0);
+            for (byte[] record : records) {
+                write(target, record);
+            }
+            target.force();
+            if (!compacted.renameTo(file) && !(file.delete() && compacted.renameTo(file))) {
+                throw new IOException("Cannot replace build journal " + file);
+            }
+            buffer = target;
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,570 @@
+package org.aerogear.digger.client.util;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Size bounded on-disk cache of the console logs of finished builds.
+ * <p>
+ * Logs are split into blocks of {@link #BLOCK_SIZE} bytes which are compressed independently and followed by a block
+ * index, so reading a log decompresses only the blocks that are actually read and skipping over a part of the log
+ * doesn't decompress it at all. When the cache grows over its size, the least recently read logs are deleted.
+ * The duration of the build is kept with its log, so that a build served from the cache still counts in the stats.
+ * <p>
+ * Logs are identified by job name and build number only, so a cache directory must not be shared by clients of
+ * different Jenkins instances.
+ * <p>
+ * Instances are thread safe.
+ */
+public class ConsoleLogCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConsoleLogCache.class);
+
+    /**
+     * Uncompressed size of a block.
+     */
+    public static final int BLOCK_SIZE = 64 * 1024;
+
+    private static final int MAGIC = 0x44474c31; // DGL1
+    private static final String SUFFIX = ".log.z";
+    private static final int TRAILER_SIZE = 8 + 4 + 8 + 8 + 4;
+    private static final int INDEX_ENTRY_SIZE = 8 + 4 + 4;
+
+    private final File directory;
+    private final long maxBytes;
+
+    /**
+     * File names of the cached logs mapped to their sizes, least recently used first.
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long size;
+
+    /**
+     * @param directory directory of the cache, created if it doesn't exist. Logs cached by a previous process are reused.
+     * @param maxBytes  maximum size (in bytes) of the compressed logs in the cache
+     * @throws IOException if the directory cannot be created
+     */
+    public ConsoleLogCache(File directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create console log cache directory " + directory);
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File a, File b) {
+                    long diff = a.lastModified() - b.lastModified();
+                    return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+                }
+            });
+            for (File file : files) {
+                if (file.getName().endsWith(SUFFIX)) {
+                    entries.put(file.getName(), file.length());
+                    size += file.length();
+                } else if (file.getName().endsWith(".tmp")) {
+                    file.delete();
+                }
+            }
+        }
+        evict();
+    }
+
+    /**
+     * Opens a cached log.
+     *
+     * @param jobName     name of the job
+     * @param buildNumber job build number
+     * @return stream of the log, {@code null} if the log is not cached
+     * @throws IOException if the cached log cannot be read
+     */
+    public CachedLog open(String jobName, int buildNumber) throws IOException {
+        String name = fileName(jobName, buildNumber);
+        synchronized (this) {
+            if (entries.get(name) == null) {
+                return null;
+            }
+        }
+        File file = new File(directory, name);
+        file.setLastModified(System.currentTimeMillis());
+        try {
+            return new CachedLog(new RandomAccessFile(file, "r"));
+        } catch (IOException e) {
+            LOG.debug("Cannot read cached log {}. Dropping it.", file, e);
+            remove(name);
+            return null;
+        }
+    }
+
+    /**
+     * Caches a log of a build whose duration is unknown. The stream is read fully and closed.
+     *
+     * @param jobName     name of the job
+     * @param buildNumber job build number
+     * @param log         the log
+     * @throws IOException if the log cannot be read or written to the cache
+     */
+    public void put(String jobName, int buildNumber, InputStream log) throws IOException {
+        put(jobName, buildNumber, -1, log);
+    }
+
+    /**
+     * Caches a log. The stream is read fully and closed.
+     *
+     * @param jobName       name of the job
+     * @param buildNumber   job build number
+     * @param buildDuration duration of the build in milliseconds, -1 if unknown
+     * @param log           the log
+     * @throws IOException if the log cannot be read or written to the cache
+     */
+    public void put(String jobName, int buildNumber, long buildDuration, InputStream log) throws IOException {
+        String name = fileName(jobName, buildNumber);
+        File tmp = File.createTempFile(name, ".tmp", directory);
+        BlockWriter writer = null;
+        boolean written = false;
+        try {
+            writer = new BlockWriter(tmp, buildDuration);
+            byte[] buffer = new byte[BLOCK_SIZE];
+            int length;
+            while ((length = log.read(buffer)) != -1) {
+                writer.write(buffer, 0, length);
+            }
+            writer.finish();
+            commit(name, tmp);
+            written = true;
+        } finally {
+            IOUtils.closeQuietly(log);
+            if (!written) {
+                if (writer != null) {
+                    writer.abort();
+                }
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Caches a log while it is read, so that it is downloaded only once for the caller and the cache.
+     * <p>
+     * The returned stream reads the given one and writes what it reads to the cache. The log is cached when the
+     * returned stream reaches its end. If it is closed earlier, or if writing to the cache fails, the log is not
+     * cached but reading it goes on.
+     *
+     * @param jobName       name of the job
+     * @param buildNumber   job build number
+     * @param buildDuration duration of the build in milliseconds, -1 if unknown
+     * @param log           the log, closed when the returned stream is closed
+     * @return stream of the log, to be closed by the caller
+     * @throws IOException if the log cannot be written to the cache, the given stream is left open then
+     */
+    public InputStream putWhileReading(String jobName, int buildNumber, long buildDuration, InputStream log) throws IOException {
+        String name = fileName(jobName, buildNumber);
+        File tmp = File.createTempFile(name, ".tmp", directory);
+        try {
+            return new CachingInputStream(log, name, tmp, new BlockWriter(tmp, buildDuration));
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * @return size (in bytes) of the compressed logs in the cache
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Moves a written log into the cache.
+     */
+    private void commit(String name, File tmp) throws IOException {
+        File file = new File(directory, name);
+        if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+            throw new IOException("Cannot move " + tmp + " to " + file);
+        }
+        synchronized (this) {
+            Long previous = entries.put(name, file.length());
+            size += file.length() - (previous == null ? 0 : previous);
+            evict();
+        }
+    }
+
+    private synchronized void remove(String name) {
+        Long length = entries.remove(name);
+        if (length != null) {
+            size -= length;
+            new File(directory, name).delete();
+        }
+    }
+
+    private synchronized void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (size > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            LOG.debug("Evicting cached log {}", eldest.getKey());
+            new File(directory, eldest.getKey()).delete();
+            size -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    private static String fileName(String jobName, int buildNumber) throws IOException {
+        return URLEncoder.encode(jobName, "UTF-8") + "-" + buildNumber + SUFFIX;
+    }
+
+    /**
+     * Writes a log to a file, compressing it one block at a time.
+     * <p>
+     * Layout: compressed blocks, then for each block its offset, compressed and raw length,
+     * then the index offset, block count, total raw length, build duration and the magic number.
+     */
+    private static class BlockWriter {
+        private final DataOutputStream out;
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final long buildDuration;
+        private final byte[] raw = new byte[BLOCK_SIZE];
+        private byte[] compressed = new byte[BLOCK_SIZE + BLOCK_SIZE / 2];
+        private final BlockIndex index = new BlockIndex();
+        private int rawLength;
+        private long offset;
+        private long total;
+
+        BlockWriter(File target, long buildDuration) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(target)));
+            this.buildDuration = buildDuration;
+        }
+
+        void write(byte[] buffer, int start, int length) throws IOException {
+            while (length > 0) {
+                int count = Math.min(length, raw.length - rawLength);
+                System.arraycopy(buffer, start, raw, rawLength, count);
+                rawLength += count;
+                start += count;
+                length -= count;
+                if (rawLength == raw.length) {
+                    writeBlock();
+                }
+            }
+        }
+
+        /**
+         * Writes the last block, the index and the trailer, then closes the file.
+         */
+        void finish() throws IOException {
+            try {
+                if (rawLength > 0) {
+                    writeBlock();
+                }
+                for (int i = 0; i < index.count; i++) {
+                    out.writeLong(index.offsets[i]);
+                    out.writeInt(index.compressedLengths[i]);
+                    out.writeInt(index.rawLengths[i]);
+                }
+                out.writeLong(offset);
+                out.writeInt(index.count);
+                out.writeLong(total);
+                out.writeLong(buildDuration);
+                out.writeInt(MAGIC);
+            } finally {
+                deflater.end();
+                out.close();
+            }
+        }
+
+        /**
+         * Closes the file without completing it.
+         */
+        void abort() {
+            deflater.end();
+            IOUtils.closeQuietly(out);
+        }
+
+        private void writeBlock() throws IOException {
+            deflater.reset();
+            deflater.setInput(raw, 0, rawLength);
+            deflater.finish();
+            int compressedLength = 0;
+            while (!deflater.finished()) {
+                if (compressedLength == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+                compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+            }
+            out.write(compressed, 0, compressedLength);
+            index.add(offset, compressedLength, rawLength);
+            offset += compressedLength;
+            total += rawLength;
+            rawLength = 0;
+        }
+    }
+
+    /**
+     * Reads a log and writes what is read to the cache, see {@link #putWhileReading(String, int, long, InputStream)}.
+     */
+    private class CachingInputStream extends InputStream {
+        private final InputStream log;
+        private final String name;
+        private final File tmp;
+        private BlockWriter writer;
+
+        CachingInputStream(InputStream log, String name, File tmp, BlockWriter writer) {
+            this.log = log;
+            this.name = name;
+            this.tmp = tmp;
+            this.writer = writer;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = log.read();
+            if (b == -1) {
+                commitQuietly();
+            } else {
+                cacheQuietly(new byte[]{(byte) b}, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = log.read(buffer, offset, length);
+            if (count == -1) {
+                commitQuietly();
+            } else {
+                cacheQuietly(buffer, offset, count);
+            }
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return log.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                log.close();
+            } finally {
+                if (writer != null) {
+                    LOG.debug("Log {} closed before its end, not caching it", name);
+                    discard();
+                }
+            }
+        }
+
+        private void cacheQuietly(byte[] buffer, int offset, int length) {
+            if (writer == null) {
+                return;
+            }
+            try {
+                writer.write(buffer, offset, length);
+            } catch (IOException e) {
+                LOG.warn("Cannot cache log {}, reading it uncached", name, e);
+                discard();
+            }
+        }
+
+        private void commitQuietly() {
+            if (writer == null) {
+                return;
+            }
+            BlockWriter finished = writer;
+            writer = null;
+            try {
+                finished.finish();
+                commit(name, tmp);
+            } catch (IOException e) {
+                LOG.warn("Cannot cache log {}", name, e);
+                tmp.delete();
+            }
+        }
+
+        private void discard() {
+            writer.abort();
+            writer = null;
+            tmp.delete();
+        }
+    }
+
+    private static class BlockIndex {
+        long[] offsets = new long[16];
+        int[] compressedLengths = new int[16];
+        int[] rawLengths = new int[16];
+        int count;
+
+        void add(long offset, int compressedLength, int rawLength) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+                compressedLengths = Arrays.copyOf(compressedLengths, count * 2);
+                rawLengths = Arrays.copyOf(rawLengths, count * 2);
+            }
+            offsets[count] = offset;
+            compressedLengths[count] = compressedLength;
+            rawLengths[count] = rawLength;
+            count++;
+        }
+    }
+
+    /**
+     * Reads a cached log, decompressing one block at a time.
+     */
+    public static class CachedLog extends InputStream {
+        private final RandomAccessFile file;
+        private final BlockIndex index = new BlockIndex();
+        private final Inflater inflater = new Inflater();
+        private final long buildDuration;
+
+        private byte[] block = new byte[0];
+        private int blockPosition;
+        private int nextBlock;
+        /**
+         * Bytes to skip at the start of the next block, when skipping ends inside a block that is not decompressed yet.
+         */
+        private int pendingSkip;
+
+        CachedLog(RandomAccessFile file) throws IOException {
+            this.file = file;
+            try {
+                long length = file.length();
+                if (length < TRAILER_SIZE) {
+                    throw new IOException("Truncated cached log");
+                }
+                file.seek(length - TRAILER_SIZE);
+                long indexOffset = file.readLong();
+                int count = file.readInt();
+                file.readLong();
+                buildDuration = file.readLong();
+                if (file.readInt() != MAGIC || indexOffset + (long) count * INDEX_ENTRY_SIZE + TRAILER_SIZE != length) {
+                    throw new IOException("Corrupt cached log");
+                }
+                file.seek(indexOffset);
+                for (int i = 0; i < count; i++) {
+                    index.add(file.readLong(), file.readInt(), file.readInt());
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return duration of the build in milliseconds, -1 if it was not known when the log was cached
+         */
+        public long getBuildDuration() {
+            return buildDuration;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!ensureBlock()) {
+                return -1;
+            }
+            return block[blockPosition++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!ensureBlock()) {
+                return -1;
+            }
+            int count = Math.min(length, block.length - blockPosition);
+            System.arraycopy(block, blockPosition, buffer, offset, count);
+            blockPosition += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            // rest of the current block
+            long inBlock = Math.min(n, block.length - blockPosition);
+            blockPosition += inBlock;
+            skipped += inBlock;
+            // whole blocks and the start of the next one without decompressing them
+            while (skipped < n && nextBlock < index.count) {
+                int rawLength = index.rawLengths[nextBlock] - pendingSkip;
+                if (n - skipped >= rawLength) {
+                    skipped += rawLength;
+                    pendingSkip = 0;
+                    nextBlock++;
+                } else {
+                    pendingSkip += (int) (n - skipped);
+                    skipped = n;
+                }
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return block.length - blockPosition;
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            file.close();
+        }
+
+        private boolean ensureBlock() throws IOException {
+            while (blockPosition >= block.length) {
+                if (nextBlock >= index.count) {
+                    return false;
+                }
+                block = inflate(nextBlock++);
+                blockPosition = pendingSkip;
+                pendingSkip = 0;
+            }
+            return true;
+        }
+
+        private byte[] inflate(int blockIndex) throws IOException {
+            byte[] compressed = new byte[index.compressedLengths[blockIndex]];
+            file.seek(index.offsets[blockIndex]);
+            file.readFully(compressed);
+            byte[] raw = new byte[index.rawLengths[blockIndex]];
+            inflater.reset();
+            inflater.setInput(compressed);
+            try {
+                int length = 0;
+                while (length < raw.length && !inflater.finished()) {
+                    int inflated = inflater.inflate(raw, length, raw.length - length);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    length += inflated;
+                }
+                if (length != raw.length) {
+                    throw new IOException("Corrupt block " + blockIndex + " in cached log");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt block " + blockIndex + " in cached log: " + e.getMessage());
+            }
+            return raw;
+        }
+    }
+}
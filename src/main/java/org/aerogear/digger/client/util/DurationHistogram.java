@@ -0,0 +1,156 @@
+package org.aerogear.digger.client.util;
+
+/**
+ * Fixed size histogram of durations in milliseconds, used to estimate percentiles without keeping the samples.
+ * <p>
+ * Values below {@link #SUB_BUCKETS} are counted exactly. Larger values fall into buckets that split every power of two
+ * into {@link #SUB_BUCKETS} linear parts, so the reported percentiles are within ~6% of the real values.
+ * Memory is a few kilobytes regardless of the number of recorded values.
+ * <p>
+ * Instances are thread safe.
+ */
+public class DurationHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Values are clamped to 2^40 msecs (~35 years).
+     */
+    private static final int MAX_MAGNITUDE = 40;
+    private static final long MAX_VALUE = (1L << MAX_MAGNITUDE) - 1;
+
+    private final long[] counts = new long[SUB_BUCKETS + (MAX_MAGNITUDE - SUB_BUCKET_BITS) * SUB_BUCKETS];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    /**
+     * @param value duration in milliseconds. Negative values are recorded as 0.
+     */
+    public synchronized void record(long value) {
+        long clamped = Math.min(Math.max(value, 0), MAX_VALUE);
+        counts[indexOf(clamped)]++;
+        count++;
+        sum += clamped;
+        min = Math.min(min, clamped);
+        max = Math.max(max, clamped);
+    }
+
+    /**
+     * Adds all the values recorded by the other histogram to this one.
+     *
+     * @param other histogram to merge
+     */
+    public void add(DurationHistogram other) {
+        DurationHistogram snapshot = other.copy();
+        synchronized (this) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += snapshot.counts[i];
+            }
+            count += snapshot.count;
+            sum += snapshot.sum;
+            min = Math.min(min, snapshot.min);
+            max = Math.max(max, snapshot.max);
+        }
+    }
+
+    /**
+     * @return independent copy of the current state
+     */
+    public synchronized DurationHistogram copy() {
+        DurationHistogram copy = new DurationHistogram();
+        System.arraycopy(counts, 0, copy.counts, 0, counts.length);
+        copy.count = count;
+        copy.sum = sum;
+        copy.min = min;
+        copy.max = max;
+        return copy;
+    }
+
+    /**
+     * @return number of recorded values
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return smallest recorded value, 0 if nothing is recorded
+     */
+    public synchronized long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * @return largest recorded value, 0 if nothing is recorded
+     */
+    public synchronized long getMax() {
+        return max;
+    }
+
+    /**
+     * @return mean of the recorded values, 0 if nothing is recorded
+     */
+    public synchronized long getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * Estimates the value below which the given percentage of the recorded values fall.
+     *
+     * @param percentile percentile between 0 and 100, e.g. 99.0
+     * @return estimated value, 0 if nothing is recorded
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(Math.min(Math.max(percentile, 0), 100) / 100.0 * count);
+        if (rank >= count) {
+            return max;
+        }
+        rank = Math.max(rank, 1);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                long lower = lowerBound(i);
+                long upper = lowerBound(i + 1) - 1;
+                return Math.max(min, Math.min(max, lower + (upper - lower) / 2));
+            }
+        }
+        return max;
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    private static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket)) << shift;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DurationHistogram{" +
+            "count=" + count +
+            ", p50=" + getPercentile(50) +
+            ", p90=" + getPercentile(90) +
+            ", p99=" + getPercentile(99) +
+            ", max=" + max +
+            '}';
+    }
+}
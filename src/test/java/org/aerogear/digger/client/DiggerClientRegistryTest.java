@@ -0,0 +1,72 @@
+package org.aerogear.digger.client;
+
+import org.aerogear.digger.client.util.DiggerClientException;
+import org.aerogear.digger.client.util.JenkinsAuth;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class DiggerClientRegistryTest {
+
+    private DiggerClientRegistry registry;
+
+    @After
+    public void tearDown() {
+        registry.close();
+    }
+
+    @Test
+    public void shouldReuseClientOfTenant() throws Exception {
+        registry = new DiggerClientRegistry();
+
+        DiggerClient client = registry.get("https://jenkins.example.com", "admin", "password");
+
+        assertThat(registry.get(new JenkinsAuth("https://jenkins.example.com", "admin", "password"))).isSameAs(client);
+        assertThat(registry.get("https://jenkins.example.com", "other", "password")).isNotSameAs(client);
+        assertThat(registry.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedClient() throws Exception {
+        registry = new DiggerClientRegistry(2, DiggerClientRegistry.DEFAULT_IDLE_TIMEOUT);
+
+        DiggerClient first = registry.get("https://first.example.com", "admin", "password");
+        registry.get("https://second.example.com", "admin", "password");
+        registry.get("https://first.example.com", "admin", "password");
+        registry.get("https://third.example.com", "admin", "password");
+
+        assertThat(registry.size()).isEqualTo(2);
+        assertThat(registry.get("https://first.example.com", "admin", "password")).isSameAs(first);
+    }
+
+    @Test
+    public void shouldNotEvictClientUsedSinceItWasHandedOut() throws Exception {
+        registry = new DiggerClientRegistry(DiggerClientRegistry.DEFAULT_MAX_CLIENTS, 300);
+
+        DiggerClient client = registry.get("http://localhost:1", "admin", "password");
+        Thread.sleep(200);
+        try {
+            client.warmUp();
+            fail("Expected nothing to listen on port 1");
+        } catch (DiggerClientException expected) {
+            // the client still tried to reach Jenkins
+        }
+        Thread.sleep(200);
+        registry.evictIdle();
+
+        assertThat(registry.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldEvictIdleClients() throws Exception {
+        registry = new DiggerClientRegistry(DiggerClientRegistry.DEFAULT_MAX_CLIENTS, 50);
+
+        registry.get("https://jenkins.example.com", "admin", "password");
+        Thread.sleep(100);
+        registry.evictIdle();
+
+        assertThat(registry.size()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,256 @@
+package org.aerogear.digger.client;
+
+import com.offbytwo.jenkins.JenkinsServer;
+import com.offbytwo.jenkins.client.JenkinsHttpClient;
+import com.offbytwo.jenkins.model.JobWithDetails;
+import org.aerogear.digger.client.model.BuildStatus;
+import org.aerogear.digger.client.model.StartupTimings;
+import org.aerogear.digger.client.services.BuildService;
+import org.aerogear.digger.client.services.JobService;
+import org.aerogear.digger.client.services.PipelineService;
+import org.aerogear.digger.client.services.StageListener;
+import org.aerogear.digger.client.util.DiggerClientException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class DiggerClientTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldCloseBuildJournalOnClose() throws Exception {
+        BuildService buildService = new BuildService(BuildService.DEFAULT_FIRST_CHECK_DELAY, BuildService.DEFAULT_POLL_PERIOD);
+        DiggerClient client = DiggerClient.builder()
+            .createJobService(new JobService())
+            .triggerBuildService(buildService)
+            .buildJournal(new File(folder.getRoot(), "builds.journal"))
+            .withAuth("https://jenkins.example.com", "admin", "password")
+            .connectLazily()
+            .build();
+
+        client.close();
+
+        try {
+            buildService.getJournal().triggered("job", Collections.<String, String>emptyMap(), "https://jenkins.example.com/queue/item/1/", 1000L);
+            fail("Expected the journal to be closed");
+        } catch (IOException e) {
+            assertThat(e.getMessage()).contains("closed");
+        }
+    }
+
+    @Test
+    public void shouldNotTouchJenkinsWhenConnectingLazily() throws Exception {
+        JenkinsServer server = mock(JenkinsServer.class);
+
+        DiggerClient client = builder(server).connectLazily().build();
+
+        verifyZeroInteractions(server);
+        assertThat(client.getStartupTimings().getPhases()).isEmpty();
+    }
+
+    @Test
+    public void shouldCreateJenkinsClientWhenBuilt() throws Exception {
+        JenkinsServer server = mock(JenkinsServer.class);
+
+        DiggerClient client = builder(server).build();
+
+        verifyZeroInteractions(server);
+        assertThat(client.getStartupTimings().getPhases()).containsOnlyKeys(StartupTimings.CLIENT);
+    }
+
+    @Test
+    public void shouldRecordStartupPhasesOnWarmUp() throws Exception {
+        JenkinsServer server = mock(JenkinsServer.class);
+        when(server.isRunning()).thenReturn(true);
+        DiggerClient client = builder(server).connectLazily().build();
+
+        StartupTimings timings = client.warmUp();
+
+        assertThat(timings.getPhases()).containsOnlyKeys(
+            StartupTimings.CLIENT, StartupTimings.TEMPLATE, StartupTimings.CONNECTION, StartupTimings.WARM_UP);
+        assertThat(timings.get(StartupTimings.WARM_UP)).isGreaterThanOrEqualTo(0);
+        assertThat(client.getStartupTimings().getPhases()).isEqualTo(timings.getPhases());
+        verify(server).isRunning();
+    }
+
+    @Test
+    public void shouldFailWarmUpWhenJenkinsIsNotRunning() throws Exception {
+        JenkinsServer server = mock(JenkinsServer.class);
+        when(server.isRunning()).thenReturn(false);
+        DiggerClient client = builder(server).connectLazily().build();
+
+        try {
+            client.warmUp();
+            fail("Expected warm up to fail");
+        } catch (DiggerClientException e) {
+            assertThat(e.getMessage()).contains("https://jenkins.example.com");
+        }
+        assertThat(client.getStartupTimings().get(StartupTimings.CONNECTION)).isEqualTo(-1);
+        assertThat(client.getStartupTimings().get(StartupTimings.WARM_UP)).isEqualTo(-1);
+    }
+
+    @Test
+    public void shouldCancelStageWatchesOnClose() throws Exception {
+        JenkinsServer server = mock(JenkinsServer.class);
+        JobWithDetails job = mock(JobWithDetails.class);
+        JenkinsHttpClient jenkinsClient = mock(JenkinsHttpClient.class);
+        when(server.getJob("test")).thenReturn(job);
+        when(job.getUrl()).thenReturn("https://jenkins.example.com/job/test/");
+        when(job.getClient()).thenReturn(jenkinsClient);
+        when(jenkinsClient.getFile(any(URI.class))).thenThrow(new IOException("Jenkins is slow today"));
+        DiggerClient client = builder(server)
+            .pipelineService(new PipelineService(Executors.newSingleThreadScheduledExecutor(), 60 * 1000L))
+            .connectLazily()
+            .build();
+
+        PipelineService.StageWatch watch = client.watchStages("test", 7, mock(StageListener.class));
+        assertThat(watch.isDone()).isFalse();
+
+        client.close();
+
+        assertThat(watch.isDone()).isTrue();
+    }
+
+    @Test
+    public void shouldRecordDurationOfFinishedPipelineRun() throws Exception {
+        JenkinsServer server = mock(JenkinsServer.class);
+        JobWithDetails job = mock(JobWithDetails.class);
+        JenkinsHttpClient jenkinsClient = mock(JenkinsHttpClient.class);
+        when(server.getJob("test")).thenReturn(job);
+        when(job.getUrl()).thenReturn("https://jenkins.example.com/job/test/");
+        when(job.getClient()).thenReturn(jenkinsClient);
+        when(jenkinsClient.getFile(any(URI.class))).thenReturn(new ByteArrayInputStream(
+            "{\"id\":\"7\",\"status\":\"SUCCESS\",\"durationMillis\":3000,\"stages\":[]}".getBytes("UTF-8")));
+        DiggerClient client = builder(server).connectLazily().build();
+
+        client.getStages("test", 7);
+
+        assertThat(client.stats("test").getBuildDuration().getCount()).isEqualTo(1);
+        assertThat(client.stats("test").getBuildDuration().getMax()).isEqualTo(3000L);
+    }
+
+    @Test
+    public void shouldStopThreadsOfDefaultServicesOnClose() throws Exception {
+        JenkinsServer server = mock(JenkinsServer.class);
+        JobWithDetails job = mock(JobWithDetails.class);
+        JenkinsHttpClient jenkinsClient = mock(JenkinsHttpClient.class);
+        when(server.getJob("test")).thenReturn(job);
+        when(job.getUrl()).thenReturn("https://jenkins.example.com/job/test/");
+        when(job.getClient()).thenReturn(jenkinsClient);
+        when(jenkinsClient.getFile(any(URI.class))).thenThrow(new IOException("Jenkins is slow today"));
+        final BlockingQueue<Thread> pollingThreads = new LinkedBlockingQueue<Thread>();
+        StageListener listener = mock(StageListener.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                pollingThreads.add(Thread.currentThread());
+                return null;
+            }
+        }).when(listener).onError(anyString(), anyInt(), any(Exception.class));
+        DiggerClient client = builder(server).connectLazily().build();
+
+        client.watchStages("test", 7, listener);
+        Thread pollingThread = pollingThreads.poll(5, TimeUnit.SECONDS);
+        assertThat(pollingThread).isNotNull();
+
+        client.close();
+
+        pollingThread.join(5000);
+        assertThat(pollingThread.isAlive()).isFalse();
+    }
+
+    @Test
+    public void shouldFollowTriggeredBuildsUntilClosed() throws Exception {
+        BuildService buildService = new BuildService(BuildService.DEFAULT_FIRST_CHECK_DELAY, BuildService.DEFAULT_POLL_PERIOD);
+        DiggerClient client = DiggerClient.builder()
+            .createJobService(new JobService())
+            .triggerBuildService(buildService)
+            .withAuth("https://jenkins.example.com", "admin", "password")
+            .jenkinsServer(mock(JenkinsServer.class))
+            .build();
+
+        assertThat(buildService.isTrackingCompletions()).isTrue();
+
+        client.close();
+
+        assertThat(buildService.isTrackingCompletions()).isFalse();
+    }
+
+    @Test
+    public void shouldBeBusyWhileWaitingForBuild() throws Exception {
+        JenkinsServer server = mock(JenkinsServer.class);
+        final CountDownLatch waiting = new CountDownLatch(1);
+        final CountDownLatch jenkinsAnswers = new CountDownLatch(1);
+        when(server.getJob("test")).thenAnswer(new Answer<JobWithDetails>() {
+            @Override
+            public JobWithDetails answer(InvocationOnMock invocation) throws Throwable {
+                waiting.countDown();
+                jenkinsAnswers.await();
+                return null;
+            }
+        });
+        final DiggerClient client = builder(server).connectLazily().build();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<BuildStatus> build = executor.submit(new Callable<BuildStatus>() {
+                @Override
+                public BuildStatus call() throws Exception {
+                    return client.build("test", 1000L);
+                }
+            });
+            assertThat(waiting.await(5, TimeUnit.SECONDS)).isTrue();
+
+            assertThat(client.isBusy()).isTrue();
+
+            jenkinsAnswers.countDown();
+            try {
+                build.get(5, TimeUnit.SECONDS);
+                fail("Expected the unknown job to fail the build");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause()).isInstanceOf(DiggerClientException.class);
+            }
+            assertThat(client.isBusy()).isFalse();
+        } finally {
+            executor.shutdownNow();
+            client.close();
+        }
+    }
+
+    private static DiggerClient.DiggerClientBuilder builder(JenkinsServer server) {
+        return DiggerClient.builder()
+            .createJobService(new JobService())
+            .triggerBuildService(new BuildService(BuildService.DEFAULT_FIRST_CHECK_DELAY, BuildService.DEFAULT_POLL_PERIOD))
+            .withAuth("https://jenkins.example.com", "admin", "password")
+            .jenkinsServer(server);
+    }
+}
@@ -1,23 +1,45 @@
 package org.aerogear.digger.client.services;
 
 import com.offbytwo.jenkins.JenkinsServer;
+import com.offbytwo.jenkins.client.JenkinsHttpClient;
 import com.offbytwo.jenkins.model.*;
+import org.aerogear.digger.client.model.ArtifactInfo;
+import org.aerogear.digger.client.sink.ArtifactSink;
+import org.aerogear.digger.client.sink.OutputStreamArtifactSink;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Matchers;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -84,4 +106,157 @@ public class ArtifactsServiceTests {
         assertThat(outputFile.exists()).isTrue();
         outputFile.delete();
     }
+
+    @Test
+    public void shouldPipeArtifactInChunks() throws Exception {
+        byte[] content = new byte[100];
+        new Random(1).nextBytes(content);
+        ArtifactsService service = new ArtifactsService(Executors.newSingleThreadExecutor(), 16);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        long written = service.pipe(new ByteArrayInputStream(content), "test", new OutputStreamArtifactSink(out, true));
+
+        assertThat(written).isEqualTo(100);
+        assertThat(out.toByteArray()).isEqualTo(content);
+    }
+
+    @Test
+    public void shouldAbortSinkWhenWriteFails() throws Exception {
+        ArtifactsService service = new ArtifactsService(Executors.newSingleThreadExecutor(), 16);
+        ArtifactSink sink = mock(ArtifactSink.class);
+        doThrow(new IOException("upload failed")).when(sink).write(any(byte[].class), anyInt(), anyInt());
+
+        try {
+            service.pipe(new ByteArrayInputStream(new byte[100]), "test", sink);
+            fail("Expected the sink failure");
+        } catch (IOException e) {
+            assertThat(e).hasMessage("upload failed");
+        }
+
+        verify(sink).abort();
+    }
+
+    @Test(timeout = 10000)
+    public void shouldFailWhenDownloadThrowsUnexpectedly() throws Exception {
+        ArtifactsService service = new ArtifactsService(Executors.newSingleThreadExecutor(), 16);
+        ArtifactSink sink = mock(ArtifactSink.class);
+        InputStream broken = new InputStream() {
+            @Override
+            public int read() {
+                throw new IllegalStateException("connection pool shut down");
+            }
+        };
+
+        try {
+            service.pipe(broken, "test", sink);
+            fail("Expected the download failure");
+        } catch (IOException e) {
+            assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+        }
+
+        verify(sink).abort();
+    }
+
+    @Test
+    public void shouldCloseStalledStreamWhenAborting() throws Exception {
+        ArtifactsService service = new ArtifactsService(Executors.newSingleThreadExecutor(), 16);
+        final CountDownLatch stalledReadStarted = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        ArtifactSink sink = mock(ArtifactSink.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                stalledReadStarted.await();
+                throw new IOException("upload failed");
+            }
+        }).when(sink).write(any(byte[].class), anyInt(), anyInt());
+        InputStream stalled = new InputStream() {
+            private int reads;
+
+            @Override
+            public int read() {
+                return 0;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                if (reads++ > 0) {
+                    stalledReadStarted.countDown();
+                    // like a socket read, not woken up by interrupts, only by closing the stream
+                    long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                    while (closed.getCount() > 0 && System.nanoTime() < end) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+                    }
+                    throw new IOException("stream closed");
+                }
+                return length;
+            }
+
+            @Override
+            public void close() {
+                closed.countDown();
+            }
+        };
+
+        long start = System.currentTimeMillis();
+        try {
+            service.pipe(stalled, "test", sink);
+            fail("Expected the sink failure");
+        } catch (IOException e) {
+            assertThat(e).hasMessage("upload failed");
+        }
+
+        assertThat(closed.getCount()).isEqualTo(0);
+        assertThat(System.currentTimeMillis() - start).isLessThan(5000L);
+    }
+
+    @Test
+    public void shouldReuseArtifactIndexOfFinishedBuild() throws Exception {
+        Artifact artifact = mock(Artifact.class);
+        JobWithDetails job = mock(JobWithDetails.class);
+        BuildWithDetails build = mock(BuildWithDetails.class);
+        when(server.getJob(anyString())).thenReturn(job);
+        when(job.getBuildByNumber(anyInt())).thenReturn(build);
+        when(build.details()).thenReturn(build);
+        when(build.isBuilding()).thenReturn(false);
+        when(build.getArtifacts()).thenReturn(Arrays.asList(artifact));
+        when(build.downloadArtifact(artifact)).thenReturn(mock(FileInputStream.class));
+        when(artifact.getFileName()).thenReturn("app.apk");
+
+        assertThat(artifactsService.streamArtifact(server, "job", 1, "app.apk")).isNotNull();
+        assertThat(artifactsService.streamArtifact(server, "job", 1, "app.apk")).isNotNull();
+        assertThat(artifactsService.listArtifacts(server, "job", 1, ".*\\.apk")).hasSize(1);
+
+        verify(server, times(1)).getJob("job");
+    }
+
+    @Test
+    public void shouldListArtifactsPageByPage() throws Exception {
+        JobWithDetails job = mock(JobWithDetails.class);
+        JenkinsHttpClient client = mock(JenkinsHttpClient.class);
+        when(server.getJob(anyString())).thenReturn(job);
+        when(job.getUrl()).thenReturn("https://jenkins.example.com/job/test/");
+        when(job.getClient()).thenReturn(client);
+        when(client.getFile(any(URI.class))).thenReturn(artifactsJson(ArtifactsService.ARTIFACT_PAGE_SIZE), artifactsJson(1));
+
+        List<ArtifactInfo> artifacts = new ArrayList<ArtifactInfo>();
+        for (ArtifactInfo artifact : artifactsService.listArtifacts(server, "test", 1, null)) {
+            artifacts.add(artifact);
+        }
+
+        assertThat(artifacts).hasSize(ArtifactsService.ARTIFACT_PAGE_SIZE + 1);
+        assertThat(artifacts.get(0).getRelativePath()).isEqualTo("reports/report0.xml");
+        verify(client, times(2)).getFile(any(URI.class));
+    }
+
+    private static InputStream artifactsJson(int count) throws Exception {
+        StringBuilder json = new StringBuilder("{\"artifacts\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"fileName\":\"report").append(i).append(".xml\",\"relativePath\":\"reports/report").append(i).append(".xml\"}");
+        }
+        return new ByteArrayInputStream(json.append("]}").toString().getBytes("UTF-8"));
+    }
 }
@@ -1,17 +1,43 @@
 package org.aerogear.digger.client.services;
 
 import com.offbytwo.jenkins.JenkinsServer;
+import com.offbytwo.jenkins.client.JenkinsHttpClient;
 import com.offbytwo.jenkins.model.*;
 import org.aerogear.digger.client.model.BuildStatus;
+import org.aerogear.digger.client.model.TrackedBuild;
+import org.aerogear.digger.client.util.BuildJournal;
+import org.aerogear.digger.client.util.ConsoleLogCache;
 import org.aerogear.digger.client.util.DiggerClientException;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.HttpResponseException;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
@@ -23,6 +49,9 @@ public class BuildServiceTest {
 
     private BuildService service;
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Mock
     JenkinsServer jenkinsServer;
 
@@ -31,11 +60,26 @@ public class BuildServiceTest {
 
     QueueReference queueReference = new QueueReference("https://jenkins.example.com/queue/item/123/");
 
+    @Mock
+    JenkinsHttpClient jobClient;
+
     @Before
     public void setUp() throws Exception {
         service = new BuildService(300, 50);   // wait for 300 msecs for initial build, check every 50 msecs
 
         Mockito.when(jenkinsServer.getJob("TEST")).thenReturn(mockJob);
+        Mockito.when(mockJob.getUrl()).thenReturn("https://jenkins.example.com/job/TEST/");
+        Mockito.when(mockJob.getClient()).thenReturn(jobClient);
+        jobProperties("[]");
+    }
+
+    private void jobProperties(final String properties) throws Exception {
+        Mockito.when(jobClient.getFile(Mockito.any(URI.class))).thenAnswer(new Answer<InputStream>() {
+            @Override
+            public InputStream answer(InvocationOnMock invocation) throws Throwable {
+                return new ByteArrayInputStream(("{\"property\":" + properties + "}").getBytes("UTF-8"));
+            }
+        });
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -98,6 +142,94 @@ public class BuildServiceTest {
         assertThat(buildStatus.getBuildNumber()).isEqualTo(98);
     }
 
+    @Test
+    public void shouldRecordQueueWait() throws Exception {
+        final QueueItem queueItem = new QueueItem();
+        final Executable executable = new Executable();
+        executable.setNumber(98L);
+        queueItem.setExecutable(executable);
+
+        Mockito.when(mockJob.build()).thenReturn(queueReference);
+        Mockito.when(jenkinsServer.getQueueItem(queueReference)).thenReturn(queueItem);
+        service.build(jenkinsServer, "TEST", 10000);
+
+        assertThat(service.getStats("TEST").getQueueWait().getCount()).isEqualTo(1);
+        assertThat(service.getStats("TEST").getQueueWait().getMin()).isGreaterThanOrEqualTo(300L);
+        assertThat(service.getStats().getQueueWait().getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldDropStatsOfLeastRecentlyUsedJob() throws Exception {
+        final QueueItem queueItem = new QueueItem();
+        final Executable executable = new Executable();
+        executable.setNumber(98L);
+        queueItem.setExecutable(executable);
+        final JobWithDetails otherJob = Mockito.mock(JobWithDetails.class);
+
+        service.setMaxStatsJobs(1);
+        Mockito.when(jenkinsServer.getJob("OTHER")).thenReturn(otherJob);
+        Mockito.when(otherJob.getUrl()).thenReturn("https://jenkins.example.com/job/OTHER/");
+        Mockito.when(otherJob.getClient()).thenReturn(jobClient);
+        Mockito.when(otherJob.build()).thenReturn(queueReference);
+        Mockito.when(mockJob.build()).thenReturn(queueReference);
+        Mockito.when(jenkinsServer.getQueueItem(queueReference)).thenReturn(queueItem);
+        service.build(jenkinsServer, "TEST", 10000);
+        service.build(jenkinsServer, "OTHER", 10000);
+
+        assertThat(service.getStats("TEST").getQueueWait().getCount()).isEqualTo(0);
+        assertThat(service.getStats("OTHER").getQueueWait().getCount()).isEqualTo(1);
+        assertThat(service.getStats().getQueueWait().getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldRecordDurationWhenStartedBuildFinishes() throws Exception {
+        final ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+        final QueueItem queueItem = new QueueItem();
+        final Executable executable = new Executable();
+        executable.setNumber(98L);
+        queueItem.setExecutable(executable);
+        final BuildWithDetails build = mock(BuildWithDetails.class);
+        when(mockJob.getBuildByNumber(98)).thenReturn(build);
+        when(build.details()).thenReturn(build);
+        when(build.isBuilding()).thenReturn(true, false);
+        when(build.getDuration()).thenReturn(60000L);
+
+        service.setCompletionTracking(scheduler, null);
+        Mockito.when(mockJob.build()).thenReturn(queueReference);
+        Mockito.when(jenkinsServer.getQueueItem(queueReference)).thenReturn(queueItem);
+        service.build(jenkinsServer, "TEST", 10000);
+
+        // still building at the first check, finished at the second one
+        final ArgumentCaptor<Runnable> check = ArgumentCaptor.forClass(Runnable.class);
+        Mockito.verify(scheduler).schedule(check.capture(), Mockito.eq(BuildService.COMPLETION_POLL_PERIOD), Mockito.eq(TimeUnit.MILLISECONDS));
+        check.getValue().run();
+        assertThat(service.getStats("TEST").getBuildDuration().getCount()).isEqualTo(0);
+        check.getValue().run();
+
+        assertThat(service.getStats("TEST").getBuildDuration().getCount()).isEqualTo(1);
+        assertThat(service.getStats("TEST").getBuildDuration().getMax()).isEqualTo(60000L);
+        Mockito.verify(scheduler, Mockito.times(2)).schedule(Mockito.any(Runnable.class), Mockito.anyLong(), Mockito.any(TimeUnit.class));
+    }
+
+    @Test
+    public void shouldRecordQueueWaitSeenByAttachedCaller() throws Exception {
+        final QueueItem queueItemNotBuildingYet = new QueueItem();
+        final QueueItem queueItemBuilding = new QueueItem();
+        queueItemBuilding.setExecutable(new Executable());
+        queueItemBuilding.getExecutable().setNumber(98L);
+
+        service.setDeduplicateTriggers(true);
+        Mockito.when(mockJob.build()).thenReturn(queueReference);
+        Mockito.when(jenkinsServer.getQueueItem(queueReference)).thenReturn(queueItemNotBuildingYet);
+        service.build(jenkinsServer, "TEST", 100L);
+        assertThat(service.getStats("TEST").getQueueWait().getCount()).isEqualTo(0);
+
+        Mockito.doReturn(queueItemBuilding).when(jenkinsServer).getQueueItem(queueReference);
+        service.build(jenkinsServer, "TEST", 10000L);
+
+        assertThat(service.getStats("TEST").getQueueWait().getCount()).isEqualTo(1);
+    }
+
     @Test
     public void shouldReturnBuildNumber_whenDidNotStartExecutingImmediately() throws Exception {
         final QueueItem queueItemNotBuildingYet = new QueueItem();
@@ -118,6 +250,64 @@ public class BuildServiceTest {
         Mockito.verify(jenkinsServer, Mockito.times(3)).getQueueItem(queueReference);
     }
 
+    @Test
+    public void shouldBuildWithParameters() throws Exception {
+        final Map<String, String> parameters = Collections.singletonMap("FLAVOR", "free");
+        final QueueItem queueItem = new QueueItem();
+        queueItem.setExecutable(new Executable());
+        queueItem.getExecutable().setNumber(98L);
+
+        Mockito.when(mockJob.build(parameters)).thenReturn(queueReference);
+        Mockito.when(jenkinsServer.getQueueItem(queueReference)).thenReturn(queueItem);
+        final BuildStatus buildStatus = service.build(jenkinsServer, "TEST", parameters, 10000L);
+
+        assertThat(buildStatus.getState()).isEqualTo(BuildStatus.State.BUILDING);
+        Mockito.verify(mockJob, Mockito.never()).build();
+    }
+
+    @Test
+    public void shouldBuildParameterizedJobWithDefaults() throws Exception {
+        final QueueItem queueItem = new QueueItem();
+        queueItem.setExecutable(new Executable());
+        queueItem.getExecutable().setNumber(98L);
+        jobProperties("[{\"parameterDefinitions\":[{\"name\":\"FLAVOR\"}]}]");
+
+        Mockito.when(mockJob.build(Collections.<String, String>emptyMap())).thenReturn(queueReference);
+        Mockito.when(jenkinsServer.getQueueItem(queueReference)).thenReturn(queueItem);
+        final BuildStatus buildStatus = service.build(jenkinsServer, "TEST", 10000);
+
+        assertThat(buildStatus.getBuildNumber()).isEqualTo(98);
+        Mockito.verify(mockJob).build(Collections.<String, String>emptyMap());
+        Mockito.verify(mockJob, Mockito.never()).build();
+    }
+
+    @Test
+    public void shouldBuildAllParameterSets() throws Exception {
+        final Map<String, String> free = Collections.singletonMap("FLAVOR", "free");
+        final Map<String, String> paid = Collections.singletonMap("FLAVOR", "paid");
+        final QueueReference paidQueueReference = new QueueReference("https://jenkins.example.com/queue/item/124/");
+
+        final QueueItem queueItemNotBuildingYet = new QueueItem();
+        final QueueItem queueItemBuilding = new QueueItem();
+        queueItemBuilding.setExecutable(new Executable());
+        queueItemBuilding.getExecutable().setNumber(98L);
+        final QueueItem queueItemCancelled = new QueueItem();
+        queueItemCancelled.setCancelled(true);
+
+        Mockito.when(mockJob.build(free)).thenReturn(queueReference);
+        Mockito.when(mockJob.build(paid)).thenReturn(paidQueueReference);
+        Mockito.when(jenkinsServer.getQueueItem(queueReference)).thenReturn(queueItemNotBuildingYet, queueItemBuilding);
+        Mockito.when(jenkinsServer.getQueueItem(paidQueueReference)).thenReturn(queueItemCancelled);
+
+        final List<BuildStatus> statuses = service.buildAll(jenkinsServer, "TEST", Arrays.asList(free, paid), 10000L);
+
+        assertThat(statuses).hasSize(2);
+        assertThat(statuses.get(0).getState()).isEqualTo(BuildStatus.State.BUILDING);
+        assertThat(statuses.get(0).getBuildNumber()).isEqualTo(98);
+        assertThat(statuses.get(1).getState()).isEqualTo(BuildStatus.State.CANCELLED_IN_QUEUE);
+        Mockito.verify(jenkinsServer, Mockito.times(1)).getQueueItem(paidQueueReference);
+    }
+
     @Test
     public void shouldReturnTimeout() throws Exception {
         final QueueItem queueItemNotBuildingYet = new QueueItem();
@@ -132,6 +322,375 @@ public class BuildServiceTest {
         Mockito.verify(jenkinsServer, Mockito.atLeast(2)).getQueueItem(queueReference);
     }
 
+    @Test
+    public void shouldCancelQueueItemOnTimeout() throws Exception {
+        final JenkinsHttpClient client = mock(JenkinsHttpClient.class);
+        final QueueItem queueItemNotBuildingYet = mock(QueueItem.class);
+        when(queueItemNotBuildingYet.getId()).thenReturn(123L);
+        when(queueItemNotBuildingYet.getClient()).thenReturn(client);
+
+        service.setCancelOnTimeout(true);
+        Mockito.when(mockJob.build()).thenReturn(queueReference);
+        Mockito.when(jenkinsServer.getQueueItem(queueReference)).thenReturn(queueItemNotBuildingYet);
+        final BuildStatus buildStatus = service.build(jenkinsServer, "TEST", 100L);
+
+        assertThat(buildStatus.getState()).isEqualTo(BuildStatus.State.TIMED_OUT);
+        Mockito.verify(client).post("/queue/cancelItem?id=123", true);
+    }
+
+    @Test
+    public void shouldAttachToBuildStillInQueue() throws Exception {
+        final QueueItem queueItemNotBuildingYet = new QueueItem();
+        final QueueItem queueItemBuilding = new QueueItem();
+        queueItemBuilding.setExecutable(new Executable());
+        queueItemBuilding.getExecutable().setNumber(98L);
+
+        service.setDeduplicateTriggers(true);
+        Mockito.when(mockJob.build()).thenReturn(queueReference);
+        Mockito.when(jenkinsServer.getQueueItem(queueReference)).thenReturn(queueItemNotBuildingYet);
+        assertThat(service.build(jenkinsServer, "TEST", 100L).getState()).isEqualTo(BuildStatus.State.TIMED_OUT);
+
+        Mockito.when(jenkinsServer.getQueueItem(queueReference)).thenReturn(queueItemBuilding);
+        final BuildStatus retried = service.build(jenkinsServer, "TEST", 10000L);
+        assertThat(retried.getBuildNumber()).isEqualTo(98);
+
+        // the build started, so the next trigger queues a new one
+        service.build(jenkinsServer, "TEST", 10000L);
+        Mockito.verify(mockJob, Mockito.times(2)).build();
+    }
+
+    @Test
+    public void shouldTreatRedirectAfterCancelAsCancelled() throws Exception {
+        final JenkinsHttpClient client = mock(JenkinsHttpClient.class);
+        final QueueItem queueItemNotBuildingYet = mock(QueueItem.class);
+        when(queueItemNotBuildingYet.getId()).thenReturn(123L);
+        when(queueItemNotBuildingYet.getClient()).thenReturn(client);
+        Mockito.doThrow(new HttpResponseException(302, "Found")).when(client).post("/queue/cancelItem?id=123", true);
+
+        service.setCancelOnTimeout(true);
+        service.setDeduplicateTriggers(true);
+        Mockito.when(mockJob.build()).thenReturn(queueReference);
+        Mockito.when(jenkinsServer.getQueueItem(queueReference)).thenReturn(queueItemNotBuildingYet);
+        service.build(jenkinsServer, "TEST", 100L);
+
+        // the queue item is gone, so the next trigger queues a new one
+        service.build(jenkinsServer, "TEST", 100L);
+        Mockito.verify(mockJob, Mockito.times(2)).build();
+    }
+
+    @Test
+    public void shouldKeepTriggerWhenCancelFails() throws Exception {
+        final JenkinsHttpClient client = mock(JenkinsHttpClient.class);
+        final QueueItem queueItemNotBuildingYet = mock(QueueItem.class);
+        when(queueItemNotBuildingYet.getId()).thenReturn(123L);
+        when(queueItemNotBuildingYet.getClient()).thenReturn(client);
+        Mockito.doThrow(new HttpResponseException(500, "Server Error")).when(client).post("/queue/cancelItem?id=123", true);
+
+        service.setCancelOnTimeout(true);
+        service.setDeduplicateTriggers(true);
+        Mockito.when(mockJob.build()).thenReturn(queueReference);
+        Mockito.when(jenkinsServer.getQueueItem(queueReference)).thenReturn(queueItemNotBuildingYet);
+        service.build(jenkinsServer, "TEST", 100L);
+
+        // the queue item may still start, so the next trigger attaches to it
+        service.build(jenkinsServer, "TEST", 100L);
+        Mockito.verify(mockJob, Mockito.times(1)).build();
+    }
+
+    @Test
+    public void shouldNotCancelQueueItemAnotherCallerWaitsFor() throws Exception {
+        final JenkinsHttpClient client = mock(JenkinsHttpClient.class);
+        final QueueItem queueItemNotBuildingYet = mock(QueueItem.class);
+        when(queueItemNotBuildingYet.getId()).thenReturn(123L);
+        when(queueItemNotBuildingYet.getClient()).thenReturn(client);
+        final QueueItem queueItemBuilding = new QueueItem();
+        queueItemBuilding.setExecutable(new Executable());
+        queueItemBuilding.getExecutable().setNumber(98L);
+
+        final AtomicReference<QueueItem> queueItem = new AtomicReference<QueueItem>(queueItemNotBuildingYet);
+
+        service.setCancelOnTimeout(true);
+        service.setDeduplicateTriggers(true);
+        Mockito.when(mockJob.build()).thenReturn(queueReference);
+        Mockito.when(jenkinsServer.getQueueItem(queueReference)).thenAnswer(new Answer<QueueItem>() {
+            @Override
+            public QueueItem answer(InvocationOnMock invocation) {
+                return queueItem.get();
+            }
+        });
+
+        final BuildStatus[] originStatus = new BuildStatus[1];
+        final Thread origin = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    originStatus[0] = service.build(jenkinsServer, "TEST", 10000L);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        origin.start();
+        Mockito.verify(jenkinsServer, Mockito.timeout(1000)).getQueueItem(queueReference);
+
+        assertThat(service.build(jenkinsServer, "TEST", 100L).getState()).isEqualTo(BuildStatus.State.TIMED_OUT);
+        Mockito.verify(client, Mockito.never()).post(anyString(), Mockito.anyBoolean());
+
+        queueItem.set(queueItemBuilding);
+        origin.join(5000);
+        assertThat(originStatus[0].getBuildNumber()).isEqualTo(98);
+        Mockito.verify(mockJob, Mockito.times(1)).build();
+    }
+
+    @Test(timeout = 10000)
+    public void shouldTriggerOtherBuildsWhileJenkinsIsSlowToQueueOne() throws Exception {
+        final QueueItem queueItemBuilding = new QueueItem();
+        queueItemBuilding.setExecutable(new Executable());
+        queueItemBuilding.getExecutable().setNumber(98L);
+        final QueueReference otherQueueReference = new QueueReference("https://jenkins.example.com/queue/item/124/");
+        final Map<String, String> otherParameters = Collections.singletonMap("FLAVOR", "release");
+        final CountDownLatch slowTriggerStarted = new CountDownLatch(1);
+        final CountDownLatch slowTriggerDone = new CountDownLatch(1);
+
+        service.setDeduplicateTriggers(true);
+        Mockito.when(mockJob.build()).thenAnswer(new Answer<QueueReference>() {
+            @Override
+            public QueueReference answer(InvocationOnMock invocation) throws Throwable {
+                slowTriggerStarted.countDown();
+                slowTriggerDone.await();
+                return queueReference;
+            }
+        });
+        Mockito.when(mockJob.build(otherParameters)).thenReturn(otherQueueReference);
+        Mockito.when(jenkinsServer.getQueueItem(queueReference)).thenReturn(queueItemBuilding);
+        Mockito.when(jenkinsServer.getQueueItem(otherQueueReference)).thenReturn(queueItemBuilding);
+
+        final BuildStatus[] statuses = new BuildStatus[2];
+        final Thread first = buildInBackground(statuses, 0);
+        assertThat(slowTriggerStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        final Thread second = buildInBackground(statuses, 1);
+
+        // a different build is not held up by the slow trigger
+        assertThat(service.build(jenkinsServer, "TEST", otherParameters, 10000L).getBuildNumber()).isEqualTo(98);
+
+        slowTriggerDone.countDown();
+        first.join(5000);
+        second.join(5000);
+        assertThat(statuses[0].getBuildNumber()).isEqualTo(98);
+        assertThat(statuses[1].getBuildNumber()).isEqualTo(98);
+        Mockito.verify(mockJob, Mockito.times(1)).build();
+    }
+
+    private Thread buildInBackground(final BuildStatus[] statuses, final int index) {
+        final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    statuses[index] = service.build(jenkinsServer, "TEST", 10000L);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void shouldReleaseTriggersWhenLaterTriggerFails() throws Exception {
+        final JenkinsHttpClient client = mock(JenkinsHttpClient.class);
+        final QueueItem queueItemNotBuildingYet = mock(QueueItem.class);
+        when(queueItemNotBuildingYet.getId()).thenReturn(123L);
+        when(queueItemNotBuildingYet.getClient()).thenReturn(client);
+        final Map<String, String> failingParameters = Collections.singletonMap("FLAVOR", "release");
+
+        service.setCancelOnTimeout(true);
+        service.setDeduplicateTriggers(true);
+        Mockito.when(mockJob.build()).thenReturn(queueReference);
+        Mockito.when(mockJob.build(failingParameters)).thenThrow(new HttpResponseException(500, "Server Error"));
+        Mockito.when(jenkinsServer.getQueueItem(queueReference)).thenReturn(queueItemNotBuildingYet);
+        try {
+            service.buildAll(jenkinsServer, "TEST", Arrays.asList(Collections.<String, String>emptyMap(), failingParameters), 10000L);
+            fail("Expected the failed trigger to be reported");
+        } catch (HttpResponseException expected) {
+            // the first build is queued, nobody waits for it anymore
+        }
+
+        // the only caller waiting for the queued build cancels it on timeout
+        assertThat(service.build(jenkinsServer, "TEST", 100L).getState()).isEqualTo(BuildStatus.State.TIMED_OUT);
+        Mockito.verify(client).post("/queue/cancelItem?id=123", true);
+        Mockito.verify(mockJob, Mockito.times(1)).build();
+    }
+
+    @Test
+    public void shouldForgetStuckTrigger() throws Exception {
+        final QueueItem queueItem = new QueueItem();
+        queueItem.setStuck(true);
+
+        service.setDeduplicateTriggers(true);
+        Mockito.when(mockJob.build()).thenReturn(queueReference);
+        Mockito.when(jenkinsServer.getQueueItem(queueReference)).thenReturn(queueItem);
+        assertThat(service.build(jenkinsServer, "TEST", 10000L).getState()).isEqualTo(BuildStatus.State.STUCK_IN_QUEUE);
+
+        service.build(jenkinsServer, "TEST", 10000L);
+        Mockito.verify(mockJob, Mockito.times(2)).build();
+    }
+
+    @Test
+    public void shouldForgetTriggerWhenQueueItemCannotBeFetched() throws Exception {
+        final QueueItem queueItemNotBuildingYet = new QueueItem();
+
+        service.setDeduplicateTriggers(true);
+        Mockito.when(mockJob.build()).thenReturn(queueReference);
+        Mockito.when(jenkinsServer.getQueueItem(queueReference)).thenReturn(queueItemNotBuildingYet);
+        service.build(jenkinsServer, "TEST", 100L);
+
+        Mockito.when(jenkinsServer.getQueueItem(queueReference)).thenThrow(new HttpResponseException(404, "Not Found"));
+        try {
+            service.build(jenkinsServer, "TEST", 100L);
+            fail("Expected the failed poll to be reported");
+        } catch (HttpResponseException expected) {
+            // the attached caller sees the failure
+        }
+
+        Mockito.doReturn(queueItemNotBuildingYet).when(jenkinsServer).getQueueItem(queueReference);
+        service.build(jenkinsServer, "TEST", 100L);
+        Mockito.verify(mockJob, Mockito.times(2)).build();
+    }
+
+    @Test
+    public void shouldResumeTimedOutBuildFromJournal() throws Exception {
+        final File journalFile = new File(folder.getRoot(), "builds.journal");
+        final QueueItem queueItemNotBuildingYet = new QueueItem();
+        final QueueItem queueItemBuilding = new QueueItem();
+        queueItemBuilding.setExecutable(new Executable());
+        queueItemBuilding.getExecutable().setNumber(98L);
+
+        service.setJournal(new BuildJournal(journalFile));
+        Mockito.when(mockJob.build()).thenReturn(queueReference);
+        Mockito.when(jenkinsServer.getQueueItem(queueReference)).thenReturn(queueItemNotBuildingYet);
+        assertThat(service.build(jenkinsServer, "TEST", 100L).getState()).isEqualTo(BuildStatus.State.TIMED_OUT);
+        service.getJournal().close();
+
+        // a new process picks up the journal
+        final BuildService restarted = new BuildService(300, 50);
+        restarted.setJournal(new BuildJournal(journalFile));
+        Mockito.when(jenkinsServer.getQueueItem(Mockito.any(QueueReference.class))).thenReturn(queueItemBuilding);
+        final List<TrackedBuild> resumed = restarted.resumeBuilds(jenkinsServer, 10000L);
+
+        assertThat(resumed).hasSize(1);
+        assertThat(resumed.get(0).getJobName()).isEqualTo("TEST");
+        assertThat(resumed.get(0).getStatus().getBuildNumber()).isEqualTo(98);
+        assertThat(restarted.getJournal().getOutstanding()).isEmpty();
+        Mockito.verify(mockJob, Mockito.times(1)).build();
+    }
+
+    @Test
+    public void shouldResumeBuildWithItsParameters() throws Exception {
+        final File journalFile = new File(folder.getRoot(), "builds.journal");
+        final Map<String, String> parameters = Collections.singletonMap("FLAVOR", "release");
+        final QueueItem queueItemBuilding = new QueueItem();
+        queueItemBuilding.setExecutable(new Executable());
+        queueItemBuilding.getExecutable().setNumber(98L);
+
+        service.setJournal(new BuildJournal(journalFile));
+        Mockito.when(mockJob.build(parameters)).thenReturn(queueReference);
+        Mockito.when(jenkinsServer.getQueueItem(queueReference)).thenReturn(new QueueItem());
+        assertThat(service.build(jenkinsServer, "TEST", parameters, 100L).getState()).isEqualTo(BuildStatus.State.TIMED_OUT);
+        service.getJournal().close();
+
+        final BuildService restarted = new BuildService(300, 50);
+        restarted.setJournal(new BuildJournal(journalFile));
+        Mockito.when(jenkinsServer.getQueueItem(Mockito.any(QueueReference.class))).thenReturn(queueItemBuilding);
+        final List<TrackedBuild> resumed = restarted.resumeBuilds(jenkinsServer, 10000L);
+
+        assertThat(resumed).hasSize(1);
+        assertThat(resumed.get(0).getParameters()).isEqualTo(parameters);
+    }
+
+    @Test
+    public void shouldAttachToBuildOutstandingInJournal() throws Exception {
+        final BuildJournal journal = new BuildJournal(new File(folder.getRoot(), "builds.journal"));
+        journal.triggered("TEST", Collections.<String, String>emptyMap(), queueReference.getQueueItemUrlPart(), System.currentTimeMillis());
+        final QueueItem queueItemBuilding = new QueueItem();
+        queueItemBuilding.setExecutable(new Executable());
+        queueItemBuilding.getExecutable().setNumber(98L);
+
+        // triggered by a previous process, which stopped before it left the queue
+        service.setDeduplicateTriggers(true);
+        service.setJournal(journal);
+        Mockito.when(jenkinsServer.getQueueItem(Mockito.any(QueueReference.class))).thenReturn(queueItemBuilding);
+        final BuildStatus buildStatus = service.build(jenkinsServer, "TEST", 10000L);
+
+        assertThat(buildStatus.getState()).isEqualTo(BuildStatus.State.BUILDING);
+        assertThat(buildStatus.getBuildNumber()).isEqualTo(98);
+        assertThat(journal.getOutstanding()).isEmpty();
+        Mockito.verify(mockJob, Mockito.never()).build();
+    }
+
+    @Test
+    public void shouldCancelResumedBuildOnTimeout() throws Exception {
+        final BuildJournal journal = new BuildJournal(new File(folder.getRoot(), "builds.journal"));
+        journal.triggered("TEST", Collections.<String, String>emptyMap(), "https://jenkins.example.com/queue/item/7/", 1000L);
+        final JenkinsHttpClient client = mock(JenkinsHttpClient.class);
+        final QueueItem queueItemNotBuildingYet = mock(QueueItem.class);
+        when(queueItemNotBuildingYet.getId()).thenReturn(7L);
+        when(queueItemNotBuildingYet.getClient()).thenReturn(client);
+
+        service.setCancelOnTimeout(true);
+        service.setJournal(journal);
+        Mockito.when(jenkinsServer.getQueueItem(Mockito.any(QueueReference.class))).thenReturn(queueItemNotBuildingYet);
+        final List<TrackedBuild> resumed = service.resumeBuilds(jenkinsServer, 100L);
+
+        assertThat(resumed.get(0).getStatus().getState()).isEqualTo(BuildStatus.State.TIMED_OUT);
+        Mockito.verify(client).post("/queue/cancelItem?id=7", true);
+        assertThat(journal.getOutstanding()).isEmpty();
+    }
+
+    @Test
+    public void shouldDiscardResumedBuildUnknownToJenkins() throws Exception {
+        final BuildJournal journal = new BuildJournal(new File(folder.getRoot(), "builds.journal"));
+        journal.triggered("TEST", Collections.<String, String>emptyMap(), "https://jenkins.example.com/queue/item/7/", 1000L);
+        service.setJournal(journal);
+        Mockito.when(jenkinsServer.getQueueItem(Mockito.any(QueueReference.class))).thenThrow(new HttpResponseException(404, "Not Found"));
+
+        final List<TrackedBuild> resumed = service.resumeBuilds(jenkinsServer, 10000L);
+
+        assertThat(resumed).hasSize(1);
+        assertThat(resumed.get(0).getStatus()).isNull();
+        assertThat(journal.getOutstanding()).isEmpty();
+    }
+
+    @Test
+    public void shouldKeepResumedBuildWhenJenkinsIsUnreachable() throws Exception {
+        final BuildJournal journal = new BuildJournal(new File(folder.getRoot(), "builds.journal"));
+        journal.triggered("TEST", Collections.<String, String>emptyMap(), "https://jenkins.example.com/queue/item/7/", 1000L);
+        service.setJournal(journal);
+        Mockito.when(jenkinsServer.getQueueItem(Mockito.any(QueueReference.class))).thenThrow(new ConnectException("Connection refused"));
+
+        try {
+            service.resumeBuilds(jenkinsServer, 10000L);
+            fail("Expected the connection failure");
+        } catch (ConnectException e) {
+            assertThat(journal.getOutstanding()).hasSize(1);
+        }
+    }
+
+    @Test
+    public void shouldKeepResumedBuildOnServerError() throws Exception {
+        final BuildJournal journal = new BuildJournal(new File(folder.getRoot(), "builds.journal"));
+        journal.triggered("TEST", Collections.<String, String>emptyMap(), "https://jenkins.example.com/queue/item/7/", 1000L);
+        service.setJournal(journal);
+        Mockito.when(jenkinsServer.getQueueItem(Mockito.any(QueueReference.class))).thenThrow(new HttpResponseException(503, "Service Unavailable"));
+
+        try {
+            service.resumeBuilds(jenkinsServer, 10000L);
+            fail("Expected the server error");
+        } catch (HttpResponseException e) {
+            assertThat(journal.getOutstanding()).hasSize(1);
+        }
+    }
+
     @Test(expected = DiggerClientException.class)
     public void shouldThrowExceptionIfJobForLogsCannotBeFound() throws Exception {
         when(jenkinsServer.getJob(anyString())).thenReturn(null);
@@ -153,4 +712,119 @@ public class BuildServiceTest {
         assertThat(logs).isEqualTo(expectedLogs);
     }
 
+    @Test
+    public void shouldRecordDurationOfFinishedBuildOnce() throws Exception {
+        JobWithDetails job = mock(JobWithDetails.class);
+        BuildWithDetails build = mock(BuildWithDetails.class);
+        when(jenkinsServer.getJob(anyString())).thenReturn(job);
+        when(job.getBuildByNumber(anyInt())).thenReturn(build);
+        when(build.details()).thenReturn(build);
+        when(build.isBuilding()).thenReturn(false);
+        when(build.getDuration()).thenReturn(60000L);
+
+        service.getBuildLogs(jenkinsServer, "artifact", 1);
+        service.getBuildLogs(jenkinsServer, "artifact", 1);
+
+        assertThat(service.getStats("artifact").getBuildDuration().getCount()).isEqualTo(1);
+        assertThat(service.getStats("artifact").getBuildDuration().getMax()).isEqualTo(60000L);
+    }
+
+    @Test
+    public void shouldRecordDurationOfBuildServedFromCache() throws Exception {
+        ConsoleLogCache cache = new ConsoleLogCache(folder.newFolder("logs"), 1024 * 1024);
+        cache.put("artifact", 1, 60000L, new ByteArrayInputStream("cached".getBytes("UTF-8")));
+        service.setConsoleLogCache(cache);
+
+        assertThat(service.getBuildLogs(jenkinsServer, "artifact", 1)).isEqualTo("cached");
+
+        assertThat(service.getStats("artifact").getBuildDuration().getCount()).isEqualTo(1);
+        assertThat(service.getStats("artifact").getBuildDuration().getMax()).isEqualTo(60000L);
+        Mockito.verify(jenkinsServer, Mockito.never()).getJob("artifact");
+    }
+
+    @Test
+    public void shouldServeLogsOfFinishedBuildFromCache() throws Exception {
+        service.setConsoleLogCache(new ConsoleLogCache(folder.newFolder("logs"), 1024 * 1024));
+        JobWithDetails job = mock(JobWithDetails.class);
+        BuildWithDetails build = mock(BuildWithDetails.class);
+        when(jenkinsServer.getJob(anyString())).thenReturn(job);
+        when(job.getBuildByNumber(anyInt())).thenReturn(build);
+        when(build.details()).thenReturn(build);
+        when(build.isBuilding()).thenReturn(false);
+        when(build.getConsoleOutputText()).thenReturn("finished");
+
+        service.getBuildLogs(jenkinsServer, "artifact", 1);
+        String logs = service.getBuildLogs(jenkinsServer, "artifact", 1);
+
+        assertThat(logs).isEqualTo("finished");
+        Mockito.verify(jenkinsServer, Mockito.times(1)).getJob("artifact");
+    }
+
+    @Test
+    public void shouldNotCacheLogsOfRunningBuild() throws Exception {
+        service.setConsoleLogCache(new ConsoleLogCache(folder.newFolder("logs"), 1024 * 1024));
+        JobWithDetails job = mock(JobWithDetails.class);
+        BuildWithDetails build = mock(BuildWithDetails.class);
+        when(jenkinsServer.getJob(anyString())).thenReturn(job);
+        when(job.getBuildByNumber(anyInt())).thenReturn(build);
+        when(build.details()).thenReturn(build);
+        when(build.isBuilding()).thenReturn(true);
+        when(build.getConsoleOutputText()).thenReturn("running", "running more");
+
+        service.getBuildLogs(jenkinsServer, "artifact", 1);
+        String logs = service.getBuildLogs(jenkinsServer, "artifact", 1);
+
+        assertThat(logs).isEqualTo("running more");
+    }
+
+    @Test
+    public void shouldStreamLogsOfFinishedBuildThroughCache() throws Exception {
+        service.setConsoleLogCache(new ConsoleLogCache(folder.newFolder("logs"), 1024 * 1024));
+        JobWithDetails job = mock(JobWithDetails.class);
+        BuildWithDetails build = mock(BuildWithDetails.class);
+        JenkinsHttpClient client = mock(JenkinsHttpClient.class);
+        when(jenkinsServer.getJob(anyString())).thenReturn(job);
+        when(job.getBuildByNumber(anyInt())).thenReturn(build);
+        when(build.details()).thenReturn(build);
+        when(build.isBuilding()).thenReturn(false);
+        when(build.getUrl()).thenReturn("https://jenkins.example.com/job/artifact/1/");
+        when(build.getClient()).thenReturn(client);
+        when(client.getFile(URI.create("https://jenkins.example.com/job/artifact/1/consoleText")))
+                .thenReturn(new ByteArrayInputStream("streamed".getBytes("UTF-8")));
+
+        InputStream first = service.streamBuildLogs(jenkinsServer, "artifact", 1);
+        assertThat(IOUtils.toString(first, "UTF-8")).isEqualTo("streamed");
+        first.close();
+        InputStream second = service.streamBuildLogs(jenkinsServer, "artifact", 1);
+
+        assertThat(IOUtils.toString(second, "UTF-8")).isEqualTo("streamed");
+        Mockito.verify(client, Mockito.times(1)).getFile(Mockito.any(URI.class));
+        second.close();
+    }
+
+    @Test
+    public void shouldStreamLogsUncachedWhenCachingFails() throws Exception {
+        File directory = folder.newFolder("logs");
+        service.setConsoleLogCache(new ConsoleLogCache(directory, 1024 * 1024));
+        JobWithDetails job = mock(JobWithDetails.class);
+        BuildWithDetails build = mock(BuildWithDetails.class);
+        JenkinsHttpClient client = mock(JenkinsHttpClient.class);
+        when(jenkinsServer.getJob(anyString())).thenReturn(job);
+        when(job.getBuildByNumber(anyInt())).thenReturn(build);
+        when(build.details()).thenReturn(build);
+        when(build.isBuilding()).thenReturn(false);
+        when(build.getUrl()).thenReturn("https://jenkins.example.com/job/artifact/1/");
+        when(build.getClient()).thenReturn(client);
+        when(client.getFile(URI.create("https://jenkins.example.com/job/artifact/1/consoleText")))
+                .thenReturn(new ByteArrayInputStream("streamed".getBytes("UTF-8")));
+        // the cache cannot create its files anymore
+        assertThat(directory.delete()).isTrue();
+
+        InputStream logs = service.streamBuildLogs(jenkinsServer, "artifact", 1);
+
+        assertThat(IOUtils.toString(logs, "UTF-8")).isEqualTo("streamed");
+        Mockito.verify(client, Mockito.times(1)).getFile(Mockito.any(URI.class));
+        logs.close();
+    }
+
 }
@@ -6,12 +6,16 @@ import com.offbytwo.jenkins.model.JobWithDetails;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import java.util.Collections;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -36,4 +40,30 @@ public class JobServiceTests {
         verify(server, times(1)).createJob(anyString(), anyString());
     }
 
+    @Test
+    public void shouldCreateJobWithParameters() throws Exception {
+        ArgumentCaptor<String> jobXml = ArgumentCaptor.forClass(String.class);
+        jobService.create(server, "name", "repo", "branch", Collections.singletonMap("FLAVOR", "free&paid"));
+        verify(server, times(1)).createJob(eq("name"), jobXml.capture());
+
+        assertThat(jobXml.getValue()).contains("<hudson.model.StringParameterDefinition>");
+        assertThat(jobXml.getValue()).contains("<name>FLAVOR</name>");
+        assertThat(jobXml.getValue()).contains("<defaultValue>free&amp;paid</defaultValue>");
+    }
+
+    @Test
+    public void shouldCreateJobWithoutParameters() throws Exception {
+        ArgumentCaptor<String> jobXml = ArgumentCaptor.forClass(String.class);
+        jobService.create(server, "name", "repo", "branch");
+        verify(server, times(1)).createJob(eq("name"), jobXml.capture());
+
+        assertThat(jobXml.getValue()).doesNotContain("ParametersDefinitionProperty");
+    }
+
+    @Test
+    public void shouldCreateJobAfterWarmUp() throws Exception {
+        jobService.warmUp();
+        jobService.create(server, "name", "repo", "branch");
+        verify(server, times(1)).createJob(eq("name"), anyString());
+    }
 }
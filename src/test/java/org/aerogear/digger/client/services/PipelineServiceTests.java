@@ -0,0 +1,257 @@
+package org.aerogear.digger.client.services;
+
+import com.offbytwo.jenkins.JenkinsServer;
+import com.offbytwo.jenkins.client.JenkinsHttpClient;
+import com.offbytwo.jenkins.model.JobWithDetails;
+import org.aerogear.digger.client.model.PipelineRun;
+import org.aerogear.digger.client.model.PipelineStage;
+import org.aerogear.digger.client.util.DiggerClientException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PipelineServiceTests {
+
+    private static final URI DESCRIBE_URI = URI.create("https://jenkins.example.com/job/test/7/wfapi/describe");
+
+    @Mock
+    private JenkinsServer server;
+    @Mock
+    private JenkinsHttpClient client;
+    private PipelineService pipelineService;
+
+    @Before
+    public void beforeTests() throws Exception {
+        pipelineService = new PipelineService(Executors.newSingleThreadScheduledExecutor(), 10);
+        JobWithDetails job = mock(JobWithDetails.class);
+        when(server.getJob(anyString())).thenReturn(job);
+        when(job.getUrl()).thenReturn("https://jenkins.example.com/job/test/");
+        when(job.getClient()).thenReturn(client);
+    }
+
+    @Test(expected = DiggerClientException.class)
+    public void shouldThrowExceptionIfJobCannotBeFound() throws Exception {
+        when(server.getJob(anyString())).thenReturn(null);
+        pipelineService.getPipelineRun(server, "unknown", 7);
+    }
+
+    @Test
+    public void shouldFetchStagesOfFinishedBuildOnce() throws Exception {
+        when(client.getFile(DESCRIBE_URI)).thenReturn(describe("SUCCESS", "SUCCESS", "SUCCESS"));
+
+        PipelineRun run = pipelineService.getPipelineRun(server, "test", 7);
+        pipelineService.getPipelineRun(server, "test", 7);
+
+        assertThat(run.getBuildNumber()).isEqualTo(7);
+        assertThat(run.getStatus()).isEqualTo(PipelineStage.Status.SUCCESS);
+        assertThat(run.getStages()).hasSize(2);
+        assertThat(run.getStages().get(0).getName()).isEqualTo("Build");
+        assertThat(run.getStages().get(0).getDurationMillis()).isEqualTo(1000L);
+        verify(client, times(1)).getFile(DESCRIBE_URI);
+    }
+
+    @Test
+    public void shouldCacheFinishedRunUnderRequestedBuildNumber() throws Exception {
+        String json = "{\"status\":\"SUCCESS\",\"durationMillis\":3000,\"stages\":[]}";
+        when(client.getFile(any(URI.class))).thenReturn(
+            new ByteArrayInputStream(json.getBytes("UTF-8")),
+            new ByteArrayInputStream(json.getBytes("UTF-8")));
+
+        pipelineService.getPipelineRun(server, "test", 7);
+        pipelineService.getPipelineRun(server, "test", 7);
+        pipelineService.getPipelineRun(server, "test", 8);
+
+        verify(client, times(1)).getFile(DESCRIBE_URI);
+        verify(client, times(2)).getFile(any(URI.class));
+    }
+
+    @Test
+    public void shouldReportOnlyChangedStages() throws Exception {
+        when(client.getFile(DESCRIBE_URI)).thenReturn(
+            describe("IN_PROGRESS", "SUCCESS", "IN_PROGRESS"),
+            describe("IN_PROGRESS", "SUCCESS", "IN_PROGRESS"),
+            describe("SUCCESS", "SUCCESS", "SUCCESS"));
+        final List<List<PipelineStage>> updates = new ArrayList<List<PipelineStage>>();
+        final CountDownLatch completed = new CountDownLatch(1);
+
+        pipelineService.watchStages(server, "test", 7, new StageListener() {
+            @Override
+            public void onStagesChanged(String jobName, int buildNumber, List<PipelineStage> changed) {
+                updates.add(changed);
+            }
+
+            @Override
+            public void onCompleted(String jobName, int buildNumber, PipelineRun run) {
+                completed.countDown();
+            }
+
+            @Override
+            public void onError(String jobName, int buildNumber, Exception e) {
+            }
+
+            @Override
+            public void onGaveUp(String jobName, int buildNumber, Exception e) {
+            }
+        });
+
+        assertThat(completed.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(updates).hasSize(2);
+        assertThat(updates.get(0)).hasSize(2);
+        assertThat(updates.get(1)).hasSize(1);
+        assertThat(updates.get(1).get(0).getName()).isEqualTo("Test");
+        assertThat(updates.get(1).get(0).getStatus()).isEqualTo(PipelineStage.Status.SUCCESS);
+    }
+
+    @Test
+    public void shouldNotCacheRunThatIsNotFinished() throws Exception {
+        when(client.getFile(DESCRIBE_URI)).thenReturn(
+            describe("NOT_EXECUTED", "NOT_EXECUTED", "NOT_EXECUTED"),
+            describe("SOMETHING_NEW", "SUCCESS", "SUCCESS"),
+            describe("SUCCESS", "SUCCESS", "SUCCESS"));
+
+        assertThat(pipelineService.getPipelineRun(server, "test", 7).getStatus()).isEqualTo(PipelineStage.Status.NOT_EXECUTED);
+        assertThat(pipelineService.getPipelineRun(server, "test", 7).getStatus()).isEqualTo(PipelineStage.Status.UNKNOWN);
+        assertThat(pipelineService.getPipelineRun(server, "test", 7).getStatus()).isEqualTo(PipelineStage.Status.SUCCESS);
+        assertThat(pipelineService.getPipelineRun(server, "test", 7).getStatus()).isEqualTo(PipelineStage.Status.SUCCESS);
+        verify(client, times(3)).getFile(DESCRIBE_URI);
+    }
+
+    @Test
+    public void shouldStopWatchingWhenListenerThrows() throws Exception {
+        when(client.getFile(DESCRIBE_URI)).thenReturn(describe("IN_PROGRESS", "SUCCESS", "IN_PROGRESS"));
+        final CountDownLatch called = new CountDownLatch(1);
+
+        PipelineService.StageWatch watch = pipelineService.watchStages(server, "test", 7, new StageListener() {
+            @Override
+            public void onStagesChanged(String jobName, int buildNumber, List<PipelineStage> changed) {
+                called.countDown();
+                throw new IllegalStateException("listener bug");
+            }
+
+            @Override
+            public void onCompleted(String jobName, int buildNumber, PipelineRun run) {
+            }
+
+            @Override
+            public void onError(String jobName, int buildNumber, Exception e) {
+            }
+
+            @Override
+            public void onGaveUp(String jobName, int buildNumber, Exception e) {
+            }
+        });
+
+        assertThat(called.await(5, TimeUnit.SECONDS)).isTrue();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!watch.isDone() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(watch.isDone()).isTrue();
+        Thread.sleep(100);
+        verify(client, times(1)).getFile(DESCRIBE_URI);
+    }
+
+    @Test
+    public void shouldFetchStagesOnExecutor() throws Exception {
+        when(client.getFile(DESCRIBE_URI)).thenReturn(
+            describe("IN_PROGRESS", "SUCCESS", "IN_PROGRESS"),
+            describe("SUCCESS", "SUCCESS", "SUCCESS"));
+        final ExecutorService pool = Executors.newSingleThreadExecutor();
+        final AtomicInteger fetches = new AtomicInteger();
+        pipelineService = new PipelineService(Executors.newSingleThreadScheduledExecutor(), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                fetches.incrementAndGet();
+                pool.execute(command);
+            }
+        }, 10);
+        final CountDownLatch completed = new CountDownLatch(1);
+
+        pipelineService.watchStages(server, "test", 7, new StageListener() {
+            @Override
+            public void onStagesChanged(String jobName, int buildNumber, List<PipelineStage> changed) {
+            }
+
+            @Override
+            public void onCompleted(String jobName, int buildNumber, PipelineRun run) {
+                completed.countDown();
+            }
+
+            @Override
+            public void onError(String jobName, int buildNumber, Exception e) {
+            }
+
+            @Override
+            public void onGaveUp(String jobName, int buildNumber, Exception e) {
+            }
+        });
+
+        assertThat(completed.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(fetches.get()).isEqualTo(2);
+        pool.shutdown();
+    }
+
+    @Test
+    public void shouldGiveUpAfterConsecutiveErrors() throws Exception {
+        when(client.getFile(DESCRIBE_URI)).thenThrow(new IOException("Jenkins is down"));
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch gaveUp = new CountDownLatch(1);
+
+        PipelineService.StageWatch watch = pipelineService.watchStages(server, "test", 7, new StageListener() {
+            @Override
+            public void onStagesChanged(String jobName, int buildNumber, List<PipelineStage> changed) {
+            }
+
+            @Override
+            public void onCompleted(String jobName, int buildNumber, PipelineRun run) {
+            }
+
+            @Override
+            public void onError(String jobName, int buildNumber, Exception e) {
+                errors.incrementAndGet();
+            }
+
+            @Override
+            public void onGaveUp(String jobName, int buildNumber, Exception e) {
+                gaveUp.countDown();
+            }
+        });
+
+        assertThat(gaveUp.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(watch.isDone()).isTrue();
+        assertThat(errors.get()).isEqualTo(PipelineService.MAX_CONSECUTIVE_ERRORS - 1);
+        Thread.sleep(100);
+        verify(client, times(PipelineService.MAX_CONSECUTIVE_ERRORS)).getFile(DESCRIBE_URI);
+    }
+
+    private static InputStream describe(String runStatus, String buildStageStatus, String testStageStatus) throws Exception {
+        String json = "{\"id\":\"7\",\"status\":\"" + runStatus + "\",\"durationMillis\":3000,\"stages\":["
+            + "{\"id\":\"6\",\"name\":\"Build\",\"status\":\"" + buildStageStatus + "\",\"startTimeMillis\":1,\"durationMillis\":1000},"
+            + "{\"id\":\"12\",\"name\":\"Test\",\"status\":\"" + testStageStatus + "\",\"startTimeMillis\":1001,\"durationMillis\":2000}]}";
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+}
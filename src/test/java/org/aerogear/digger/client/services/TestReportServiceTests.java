@@ -0,0 +1,119 @@
+package org.aerogear.digger.client.services;
+
+import com.offbytwo.jenkins.JenkinsServer;
+import com.offbytwo.jenkins.client.JenkinsHttpClient;
+import com.offbytwo.jenkins.model.JobWithDetails;
+import org.aerogear.digger.client.model.TestCaseResult;
+import org.aerogear.digger.client.util.DiggerClientException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TestReportServiceTests {
+
+    private static final String REPORT = "{\"_class\":\"hudson.tasks.junit.TestResult\",\"suites\":[" +
+        "{\"cases\":[" +
+        "{\"className\":\"com.example.FirstTest\",\"name\":\"passes\",\"status\":\"PASSED\",\"duration\":0.25,\"errorDetails\":null,\"errorStackTrace\":null}," +
+        "{\"className\":\"com.example.FirstTest\",\"name\":\"fails\",\"status\":\"FAILED\",\"duration\":1.5,\"errorDetails\":\"expected 1\",\"errorStackTrace\":\"at FirstTest.fails\"}" +
+        "]}," +
+        "{\"cases\":[" +
+        "{\"className\":\"com.example.SecondTest\",\"name\":\"skipped\",\"status\":\"SKIPPED\",\"duration\":0.0,\"errorDetails\":null,\"errorStackTrace\":null}," +
+        "{\"className\":\"com.example.SecondTest\",\"name\":\"regressed\",\"status\":\"REGRESSION\",\"duration\":0.1,\"errorDetails\":\"boom\",\"errorStackTrace\":null}" +
+        "]}]}";
+
+    @Mock
+    private JenkinsServer server;
+    @Mock
+    private JenkinsHttpClient client;
+    private TestReportService testReportService;
+
+    @Before
+    public void beforeTests() throws Exception {
+        testReportService = new TestReportService();
+        JobWithDetails job = mock(JobWithDetails.class);
+        when(server.getJob(anyString())).thenReturn(job);
+        when(job.getUrl()).thenReturn("https://jenkins.example.com/job/test/");
+        when(job.getClient()).thenReturn(client);
+    }
+
+    @Test(expected = DiggerClientException.class)
+    public void shouldThrowExceptionIfJobCannotBeFound() throws Exception {
+        when(server.getJob(anyString())).thenReturn(null);
+        testReportService.streamTestReport(server, "unknown", 7, false);
+    }
+
+    @Test
+    public void shouldStreamAllTestCases() throws Exception {
+        when(client.getFile(any(URI.class))).thenReturn(report());
+
+        List<TestCaseResult> cases = readAll(testReportService.streamTestReport(server, "test", 7, false));
+
+        assertThat(cases).hasSize(4);
+        assertThat(cases.get(0).getClassName()).isEqualTo("com.example.FirstTest");
+        assertThat(cases.get(0).getName()).isEqualTo("passes");
+        assertThat(cases.get(0).getStatus()).isEqualTo(TestCaseResult.Status.PASSED);
+        assertThat(cases.get(0).getDurationMillis()).isEqualTo(250L);
+        assertThat(cases.get(0).getErrorDetails()).isNull();
+        assertThat(cases.get(1).getErrorDetails()).isEqualTo("expected 1");
+        assertThat(cases.get(3).getName()).isEqualTo("regressed");
+    }
+
+    @Test
+    public void shouldStreamOnlyFailures() throws Exception {
+        when(client.getFile(any(URI.class))).thenReturn(report());
+
+        List<TestCaseResult> cases = readAll(testReportService.streamTestReport(server, "test", 7, true));
+
+        assertThat(cases).hasSize(2);
+        assertThat(cases.get(0).getName()).isEqualTo("fails");
+        assertThat(cases.get(1).getStatus()).isEqualTo(TestCaseResult.Status.REGRESSION);
+    }
+
+    @Test
+    public void shouldFetchTestReportOfBuild() throws Exception {
+        when(client.getFile(any(URI.class))).thenReturn(report());
+
+        testReportService.streamTestReport(server, "test", 7, false).close();
+
+        ArgumentCaptor<URI> uri = ArgumentCaptor.forClass(URI.class);
+        verify(client).getFile(uri.capture());
+        assertThat(uri.getValue().toString()).startsWith("https://jenkins.example.com/job/test/7/testReport/api/json?tree=");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldThrowExceptionIfReportIsTruncated() throws Exception {
+        when(client.getFile(any(URI.class))).thenReturn(new ByteArrayInputStream(REPORT.substring(0, 200).getBytes("UTF-8")));
+
+        readAll(testReportService.streamTestReport(server, "test", 7, false));
+    }
+
+    private static InputStream report() throws IOException {
+        return new ByteArrayInputStream(REPORT.getBytes("UTF-8"));
+    }
+
+    private static List<TestCaseResult> readAll(TestReportService.TestCaseIterator iterator) {
+        List<TestCaseResult> cases = new ArrayList<TestCaseResult>();
+        while (iterator.hasNext()) {
+            cases.add(iterator.next());
+        }
+        return cases;
+    }
+}
@@ -0,0 +1,119 @@
+package org.aerogear.digger.client.util;
+
+import org.aerogear.digger.client.model.BuildStatus;
+import org.aerogear.digger.client.model.TrackedBuild;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BuildJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReplayOutstandingBuilds() throws Exception {
+        File file = new File(folder.getRoot(), "builds.journal");
+        BuildJournal journal = new BuildJournal(file);
+        journal.triggered("job", Collections.<String, String>emptyMap(), "https://jenkins.example.com/queue/item/1/", 1000L);
+        journal.triggered("job", Collections.singletonMap("FLAVOR", "release"), "https://jenkins.example.com/queue/item/2/", 2000L);
+        journal.triggered("job", Collections.<String, String>emptyMap(), "https://jenkins.example.com/queue/item/3/", 3000L);
+        journal.transition("https://jenkins.example.com/queue/item/1/", new BuildStatus(BuildStatus.State.BUILDING, 5));
+        journal.transition("https://jenkins.example.com/queue/item/2/", new BuildStatus(BuildStatus.State.TIMED_OUT, -1));
+        journal.discard("https://jenkins.example.com/queue/item/3/");
+        journal.close();
+
+        List<TrackedBuild> outstanding = new BuildJournal(file).getOutstanding();
+
+        assertThat(outstanding).hasSize(1);
+        assertThat(outstanding.get(0).getQueueItemUrl()).isEqualTo("https://jenkins.example.com/queue/item/2/");
+        assertThat(outstanding.get(0).getTriggerTime()).isEqualTo(2000L);
+        assertThat(outstanding.get(0).getParameters()).isEqualTo(Collections.singletonMap("FLAVOR", "release"));
+        assertThat(outstanding.get(0).getStatus().getState()).isEqualTo(BuildStatus.State.TIMED_OUT);
+    }
+
+    @Test
+    public void shouldGrowWhenFull() throws Exception {
+        File file = new File(folder.getRoot(), "builds.journal");
+        BuildJournal journal = new BuildJournal(file);
+        for (int i = 0; i < 5000; i++) {
+            journal.triggered("job", Collections.<String, String>emptyMap(), "https://jenkins.example.com/queue/item/" + i + "/", i);
+        }
+        journal.close();
+
+        assertThat(new BuildJournal(file).getOutstanding()).hasSize(5000);
+    }
+
+    @Test
+    public void shouldIgnoreRecordTruncatedByCrash() throws Exception {
+        File file = new File(folder.getRoot(), "builds.journal");
+        BuildJournal journal = new BuildJournal(file);
+        journal.triggered("job", Collections.<String, String>emptyMap(), "https://jenkins.example.com/queue/item/1/", 1000L);
+        journal.triggered("job", Collections.<String, String>emptyMap(), "https://jenkins.example.com/queue/item/2/", 2000L);
+        journal.close();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            long lastRecord = lastRecordOffset(raf);
+            raf.seek(lastRecord);
+            int length = raf.readInt();
+            raf.setLength(lastRecord + 8 + length / 2);
+        } finally {
+            raf.close();
+        }
+
+        List<TrackedBuild> outstanding = new BuildJournal(file).getOutstanding();
+
+        assertThat(outstanding).hasSize(1);
+        assertThat(outstanding.get(0).getQueueItemUrl()).isEqualTo("https://jenkins.example.com/queue/item/1/");
+    }
+
+    @Test
+    public void shouldIgnoreRecordTornByCrash() throws Exception {
+        File file = new File(folder.getRoot(), "builds.journal");
+        BuildJournal journal = new BuildJournal(file);
+        journal.triggered("job", Collections.<String, String>emptyMap(), "https://jenkins.example.com/queue/item/1/", 1000L);
+        journal.triggered("job", Collections.<String, String>emptyMap(), "https://jenkins.example.com/queue/item/2/", 2000L);
+        journal.close();
+
+        // length and checksum made it to disk, the end of the payload didn't
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            long lastRecord = lastRecordOffset(raf);
+            raf.seek(lastRecord);
+            int length = raf.readInt();
+            raf.seek(lastRecord + 8 + length / 2);
+            raf.write(new byte[length - length / 2]);
+        } finally {
+            raf.close();
+        }
+
+        List<TrackedBuild> outstanding = new BuildJournal(file).getOutstanding();
+
+        assertThat(outstanding).hasSize(1);
+        assertThat(outstanding.get(0).getQueueItemUrl()).isEqualTo("https://jenkins.example.com/queue/item/1/");
+    }
+
+    /**
+     * Walks the {@code [length][crc][payload]} records after the header up to the end marker.
+     */
+    private static long lastRecordOffset(RandomAccessFile raf) throws Exception {
+        long offset = 4;
+        long last = -1;
+        raf.seek(offset);
+        int length;
+        while ((length = raf.readInt()) > 0) {
+            last = offset;
+            offset += 8 + length;
+            raf.seek(offset);
+        }
+        return last;
+    }
+}
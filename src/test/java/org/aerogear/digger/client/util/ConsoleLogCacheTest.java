@@ -0,0 +1,134 @@
+package org.aerogear.digger.client.util;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConsoleLogCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReadCachedLog() throws Exception {
+        ConsoleLogCache cache = new ConsoleLogCache(folder.getRoot(), 1024 * 1024);
+        byte[] log = log(3 * ConsoleLogCache.BLOCK_SIZE + 123);
+
+        cache.put("job", 1, new ByteArrayInputStream(log));
+
+        assertThat(IOUtils.toByteArray(cache.open("job", 1))).isEqualTo(log);
+        assertThat(cache.open("job", 2)).isNull();
+        assertThat(cache.open("other", 1)).isNull();
+    }
+
+    @Test
+    public void shouldKeepBuildDurationWithLog() throws Exception {
+        ConsoleLogCache cache = new ConsoleLogCache(folder.getRoot(), 1024 * 1024);
+
+        cache.put("job", 1, 60000L, new ByteArrayInputStream(log(123)));
+        cache.put("job", 2, new ByteArrayInputStream(log(123)));
+
+        ConsoleLogCache.CachedLog first = cache.open("job", 1);
+        ConsoleLogCache.CachedLog second = cache.open("job", 2);
+        assertThat(first.getBuildDuration()).isEqualTo(60000L);
+        assertThat(second.getBuildDuration()).isEqualTo(-1L);
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void shouldSkipAcrossBlocks() throws Exception {
+        ConsoleLogCache cache = new ConsoleLogCache(folder.getRoot(), 1024 * 1024);
+        byte[] log = log(3 * ConsoleLogCache.BLOCK_SIZE + 123);
+        cache.put("job", 1, new ByteArrayInputStream(log));
+
+        InputStream in = cache.open("job", 1);
+        assertThat(in.read()).isEqualTo(log[0] & 0xff);
+        long offset = 2 * ConsoleLogCache.BLOCK_SIZE + 10;
+        assertThat(in.skip(offset - 1)).isEqualTo(offset - 1);
+        assertThat(in.read()).isEqualTo(log[(int) offset] & 0xff);
+        assertThat(in.skip(Long.MAX_VALUE)).isEqualTo(log.length - offset - 1);
+        assertThat(in.read()).isEqualTo(-1);
+        in.close();
+    }
+
+    @Test
+    public void shouldReadEmptyLog() throws Exception {
+        ConsoleLogCache cache = new ConsoleLogCache(folder.getRoot(), 1024 * 1024);
+
+        cache.put("job", 1, new ByteArrayInputStream(new byte[0]));
+
+        assertThat(cache.open("job", 1).read()).isEqualTo(-1);
+    }
+
+    @Test
+    public void shouldCacheLogWhileReadingIt() throws Exception {
+        ConsoleLogCache cache = new ConsoleLogCache(folder.getRoot(), 1024 * 1024);
+        byte[] log = log(2 * ConsoleLogCache.BLOCK_SIZE + 123);
+
+        InputStream in = cache.putWhileReading("job", 1, 60000L, new ByteArrayInputStream(log));
+        assertThat(cache.open("job", 1)).isNull();
+        assertThat(IOUtils.toByteArray(in)).isEqualTo(log);
+        in.close();
+
+        ConsoleLogCache.CachedLog cached = cache.open("job", 1);
+        assertThat(IOUtils.toByteArray(cached)).isEqualTo(log);
+        assertThat(cached.getBuildDuration()).isEqualTo(60000L);
+        cached.close();
+    }
+
+    @Test
+    public void shouldNotCacheLogClosedBeforeItsEnd() throws Exception {
+        ConsoleLogCache cache = new ConsoleLogCache(folder.getRoot(), 1024 * 1024);
+
+        InputStream in = cache.putWhileReading("job", 1, 60000L, new ByteArrayInputStream(log(2 * ConsoleLogCache.BLOCK_SIZE)));
+        assertThat(in.read(new byte[100])).isEqualTo(100);
+        in.close();
+
+        assertThat(cache.open("job", 1)).isNull();
+        assertThat(folder.getRoot().list()).isEmpty();
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyReadLogs() throws Exception {
+        ConsoleLogCache cache = new ConsoleLogCache(folder.getRoot(), 1024 * 1024);
+        cache.put("job", 1, new ByteArrayInputStream(log(400 * 1024)));
+        cache.put("job", 2, new ByteArrayInputStream(log(400 * 1024)));
+        cache.open("job", 1).close();
+
+        cache.put("job", 3, new ByteArrayInputStream(log(400 * 1024)));
+
+        assertThat(cache.size()).isLessThanOrEqualTo(1024 * 1024);
+        assertThat(cache.open("job", 1)).isNotNull();
+        assertThat(cache.open("job", 2)).isNull();
+        assertThat(cache.open("job", 3)).isNotNull();
+    }
+
+    @Test
+    public void shouldReuseLogsCachedBefore() throws Exception {
+        byte[] log = log(1000);
+        new ConsoleLogCache(folder.getRoot(), 1024 * 1024).put("folder/job", 7, new ByteArrayInputStream(log));
+
+        ConsoleLogCache cache = new ConsoleLogCache(folder.getRoot(), 1024 * 1024);
+
+        assertThat(IOUtils.toByteArray(cache.open("folder/job", 7))).isEqualTo(log);
+        assertThat(cache.size()).isEqualTo(new File(folder.getRoot(), "folder%2Fjob-7.log.z").length());
+    }
+
+    /**
+     * Random bytes, so that the compressed log is about as big as the log.
+     */
+    private static byte[] log(int length) {
+        byte[] log = new byte[length];
+        new Random(length).nextBytes(log);
+        return log;
+    }
+}
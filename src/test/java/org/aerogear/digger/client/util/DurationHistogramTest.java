@@ -0,0 +1,46 @@
+package org.aerogear.digger.client.util;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class DurationHistogramTest {
+
+    @Test
+    public void shouldReturnZeroWhenEmpty() {
+        DurationHistogram histogram = new DurationHistogram();
+
+        assertThat(histogram.getCount()).isEqualTo(0);
+        assertThat(histogram.getPercentile(99)).isEqualTo(0);
+        assertThat(histogram.getMean()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldEstimatePercentiles() {
+        DurationHistogram histogram = new DurationHistogram();
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i);
+        }
+
+        assertThat(histogram.getCount()).isEqualTo(10000);
+        assertThat(histogram.getPercentile(50)).isCloseTo(5000L, within(5000L / 16));
+        assertThat(histogram.getPercentile(99)).isCloseTo(9900L, within(9900L / 16));
+        assertThat(histogram.getPercentile(100)).isEqualTo(10000);
+        assertThat(histogram.getMin()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldMergeHistograms() {
+        DurationHistogram first = new DurationHistogram();
+        DurationHistogram second = new DurationHistogram();
+        first.record(10);
+        second.record(20);
+
+        first.add(second);
+
+        assertThat(first.getCount()).isEqualTo(2);
+        assertThat(first.getMax()).isEqualTo(20);
+        assertThat(second.getCount()).isEqualTo(1);
+    }
+}